@@ -0,0 +1,37 @@
+/**
+ * Splits 64-bit byte addresses into the set index and tag of one cache level. The shifts and
+ * masks are worked out once from the block size and number of sets, rounding both down to a
+ * power of two the same way the simulator always has.
+ */
+class AddressDecoder {
+    final int offsetBits;
+    final long offsetMask;
+    final int indexBits;
+    final int indexMask;
+    final int tagShift;
+
+    public AddressDecoder(int blockSize, int numSets) {
+        this.offsetBits = log2(blockSize);
+        this.offsetMask = (1L << this.offsetBits) - 1;
+        this.indexBits = log2(numSets);
+        this.indexMask = (1 << this.indexBits) - 1;
+        this.tagShift = this.offsetBits + this.indexBits;
+    }
+
+    static int log2(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+
+    // the address of the first byte in the block
+    long blockAlign(long address) {
+        return address & ~this.offsetMask;
+    }
+
+    int set(long address) {
+        return (int) (address >>> this.offsetBits) & this.indexMask;
+    }
+
+    long tag(long address) {
+        return address >>> this.tagShift;
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads traces written by BinaryTraceWriter, one access at a time or all at once. The decoded
+ * addresses are block aligned byte addresses when the trace was reduced to a block size.
+ */
+class BinaryTraceReader implements Closeable {
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int pos;
+    private int limit;
+
+    // -1 when the header does not record the number of accesses
+    long count;
+    int blockShift;
+
+    private int chunkRemaining;
+    private int chunkIndex;
+    private final byte[] opBits = new byte[BinaryTraceWriter.CHUNK / 8];
+    private long previousBlock;
+    private boolean finished;
+
+    // the access decoded by the last successful next()
+    char op;
+    long address;
+
+    public BinaryTraceReader(InputStream in) throws IOException {
+        this.in = in;
+        this.pos = 0;
+        this.limit = 0;
+
+        for (int i = 0; i < BinaryTraceWriter.MAGIC.length; i++) {
+            if (readByte() != BinaryTraceWriter.MAGIC[i]) {
+                throw new IOException("not a binary trace");
+            }
+        }
+        int version = readByte();
+        if (version != BinaryTraceWriter.VERSION) {
+            throw new IOException("unsupported binary trace version " + version);
+        }
+        int flags = readByte();
+        this.count = (flags & BinaryTraceWriter.FLAG_COUNT) != 0 ? readVarint() : -1;
+        this.blockShift = (flags & BinaryTraceWriter.FLAG_BLOCK) != 0 ? readByte() : 0;
+        this.chunkRemaining = 0;
+        this.chunkIndex = 0;
+        this.previousBlock = 0;
+        this.finished = false;
+    }
+
+    static boolean isBinaryTrace(String traceFile) throws IOException {
+        try (FileInputStream in = new FileInputStream(traceFile)) {
+            byte[] head = new byte[BinaryTraceWriter.MAGIC.length];
+            int read = in.readNBytes(head, 0, head.length);
+            if (read < head.length) {
+                return false;
+            }
+            for (int i = 0; i < head.length; i++) {
+                if (head[i] != BinaryTraceWriter.MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Decodes the next access into op and address, returns false at the end of the trace.
+     */
+    boolean next() throws IOException {
+        if (this.chunkRemaining == 0) {
+            if (this.finished) {
+                return false;
+            }
+            int n = (int) readVarint();
+            if (n == 0) {
+                this.finished = true;
+                return false;
+            }
+            for (int i = 0; i < ((n + 7) >>> 3); i++) {
+                this.opBits[i] = (byte) readByte();
+            }
+            this.chunkRemaining = n;
+            this.chunkIndex = 0;
+        }
+
+        long zigzag = readVarint();
+        long block = this.previousBlock + ((zigzag >>> 1) ^ -(zigzag & 1));
+        this.previousBlock = block;
+        this.address = block << this.blockShift;
+        this.op = (this.opBits[this.chunkIndex >>> 3] & (1 << (this.chunkIndex & 7))) != 0 ? 'w' : 'r';
+        this.chunkIndex++;
+        this.chunkRemaining--;
+        return true;
+    }
+
+    Trace readAll() throws IOException {
+        Trace trace = new Trace(this.count >= 0 ? (int) this.count : 1 << 16);
+        trace.blockShift = this.blockShift;
+        while (next()) {
+            trace.add((byte) this.op, this.address);
+        }
+        return trace;
+    }
+
+    private int readByte() throws IOException {
+        if (this.pos == this.limit) {
+            this.limit = this.in.read(this.buffer, 0, this.buffer.length);
+            this.pos = 0;
+            if (this.limit <= 0) {
+                this.limit = 0;
+                throw new EOFException("truncated binary trace");
+            }
+        }
+        return this.buffer[this.pos++] & 0xFF;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
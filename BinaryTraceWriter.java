@@ -0,0 +1,101 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the compact binary trace format read by BinaryTraceReader.
+ *
+ * Layout, version 1:
+ *   magic "CTRB", u8 version, u8 flags
+ *   if flags & FLAG_COUNT: varint access count
+ *   if flags & FLAG_BLOCK: u8 log2 of the block size the addresses were reduced to
+ *   chunks of up to CHUNK accesses: varint n, ceil(n / 8) bytes of op bitmap (bit set = write,
+ *   least significant bit first), then n zigzag varint deltas between consecutive block addresses
+ *   a chunk with n = 0 ends the trace
+ */
+class BinaryTraceWriter implements Closeable {
+    static final byte[] MAGIC = { 'C', 'T', 'R', 'B' };
+    static final int VERSION = 1;
+    static final int FLAG_COUNT = 1;
+    static final int FLAG_BLOCK = 2;
+    static final int CHUNK = 4096;
+
+    private final OutputStream out;
+    private final int blockShift;
+    private final byte[] opBits = new byte[CHUNK / 8];
+    private final long[] blocks = new long[CHUNK];
+    private int pending;
+    private long previousBlock;
+
+    /**
+     * @param count      number of accesses that will be written, or -1 if unknown
+     * @param blockShift log2 of the block size to reduce addresses to, 0 keeps byte addresses
+     */
+    public BinaryTraceWriter(OutputStream out, long count, int blockShift) throws IOException {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.blockShift = blockShift;
+        this.pending = 0;
+        this.previousBlock = 0;
+
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+        int flags = (count >= 0 ? FLAG_COUNT : 0) | (blockShift > 0 ? FLAG_BLOCK : 0);
+        this.out.write(flags);
+        if (count >= 0) {
+            writeVarint(count);
+        }
+        if (blockShift > 0) {
+            this.out.write(blockShift);
+        }
+    }
+
+    void add(char op, long address) throws IOException {
+        if (op == 'w') {
+            this.opBits[this.pending >>> 3] |= (byte) (1 << (this.pending & 7));
+        }
+        this.blocks[this.pending] = address >>> this.blockShift;
+        this.pending++;
+        if (this.pending == CHUNK) {
+            flushChunk();
+        }
+    }
+
+    void addAll(Trace trace) throws IOException {
+        for (int i = 0; i < trace.size; i++) {
+            add((char) trace.ops[i], trace.addresses[i]);
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        writeVarint(this.pending);
+        int bitmapBytes = (this.pending + 7) >>> 3;
+        this.out.write(this.opBits, 0, bitmapBytes);
+        for (int i = 0; i < this.pending; i++) {
+            long delta = this.blocks[i] - this.previousBlock;
+            writeVarint((delta << 1) ^ (delta >> 63));
+            this.previousBlock = this.blocks[i];
+        }
+        for (int i = 0; i < bitmapBytes; i++) {
+            this.opBits[i] = 0;
+        }
+        this.pending = 0;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            this.out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.out.write((int) value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.pending > 0) {
+            flushChunk();
+        }
+        writeVarint(0);
+        this.out.close();
+    }
+}
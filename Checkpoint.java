@@ -0,0 +1,261 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Saves the state of a hierarchy part way through a trace and loads it back into a hierarchy of
+ * the same geometry, so that several variants can continue from one warm-up instead of each
+ * replaying the trace from the start.
+ *
+ * The state is every block's tag, address, valid and dirty bits, trace position and replacement
+ * stamp, each set's fill, the levels' clocks and counters, the victim cache and write-back buffer
+ * contents, the replacement policies' bits, and the number of accesses simulated. The replacement
+ * policy may differ on restore: the stamps become the new policy's order, so a checkpoint taken
+ * under LRU or MRU hands FIFO and LIFO recency rather than insertion order, and a policy with bits
+ * of its own starts them afresh unless the checkpoint was taken with the same policy. Prefetcher
+ * tables, statistics and the timing model are not saved.
+ *
+ * Layout, version 3, big endian:
+ *   magic "CCHK", u8 version, u8 replacement policy, u8 inclusion, i64 accesses simulated,
+ *   i64 writes to L2
+ *   L1, then u8 1 and L2 or u8 0, where a level is i32 block size, i32 associativity, i32 sets,
+ *   i64 clock, i64 counter, i64 reads, read misses, writes, write misses, writebacks,
+ *   invalidations, invalidation writebacks, then i64 tags[], i64 addresses[], i64 stamps[],
+ *   i64 positions[] and u8 flags[] (1 = valid, 2 = dirty) over all blocks, i32 fill[] per set,
+ *   then i32 n and i64 policy state[n]
+ *   u8 1 and the victim cache or u8 0: i32 entries, i32 fill, i64 clock, i64 probes, hits,
+ *   insertions, overflows, dirty overflows, invalidations, invalidation writebacks, then i64
+ *   addresses[], i64 stamps[], i64 positions[] and u8 dirty[] over the filled entries
+ *   u8 1 and the write-back buffer or u8 0: i32 entries, i32 count, i64 writes, coalesced, drains,
+ *   read hits, then i64 addresses[] and i64 positions[] over the queued entries
+ */
+class Checkpoint {
+    static final byte[] MAGIC = { 'C', 'C', 'H', 'K' };
+    static final int VERSION = 3;
+
+    static void save(OverallCache cache, long accesses, String file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.write(MAGIC);
+            out.write(VERSION);
+            out.write(cache.L1.replacementPolicy);
+            out.write(cache.inclusion);
+            out.writeLong(accesses);
+            out.writeLong(cache.writesToL2);
+
+            saveLevel(out, cache.L1);
+            out.write(cache.L2 != null ? 1 : 0);
+            if (cache.L2 != null) {
+                saveLevel(out, cache.L2);
+            }
+
+            VictimCache victims = cache.victimCache;
+            out.write(victims != null ? 1 : 0);
+            if (victims != null) {
+                out.writeInt(victims.entries);
+                out.writeInt(victims.fill);
+                out.writeLong(victims.clock);
+                out.writeLong(victims.probes);
+                out.writeLong(victims.hits);
+                out.writeLong(victims.insertions);
+                out.writeLong(victims.overflows);
+                out.writeLong(victims.dirtyOverflows);
+                out.writeLong(victims.invalidations);
+                out.writeLong(victims.invalidationWritebacks);
+                writeLongs(out, victims.addresses, victims.fill);
+                writeLongs(out, victims.stamps, victims.fill);
+                writeLongs(out, victims.positions, victims.fill);
+                for (int i = 0; i < victims.fill; i++) {
+                    out.write(victims.dirty[i] ? 1 : 0);
+                }
+            }
+
+            WriteBackBuffer buffer = cache.writeBuffer;
+            out.write(buffer != null ? 1 : 0);
+            if (buffer != null) {
+                out.writeInt(buffer.entries);
+                out.writeInt(buffer.count);
+                out.writeLong(buffer.writes);
+                out.writeLong(buffer.coalesced);
+                out.writeLong(buffer.drains);
+                out.writeLong(buffer.readHits);
+                writeLongs(out, buffer.addresses, buffer.count);
+                writeLongs(out, buffer.positions, buffer.count);
+            }
+        }
+    }
+
+    static void saveLevel(DataOutputStream out, CacheLevel level) throws IOException {
+        int numBlocks = level.numSets * level.associativity;
+        out.writeInt(level.blockSize);
+        out.writeInt(level.associativity);
+        out.writeInt(level.numSets);
+        out.writeLong(level.clock);
+        out.writeLong(level.counter);
+        out.writeLong(level.reads);
+        out.writeLong(level.readMisses);
+        out.writeLong(level.writes);
+        out.writeLong(level.writeMisses);
+        out.writeLong(level.writebacks);
+        out.writeLong(level.invalidations);
+        out.writeLong(level.invalidationWritebacks);
+        writeLongs(out, level.tags, numBlocks);
+        writeLongs(out, level.addresses, numBlocks);
+        writeLongs(out, level.stamps, numBlocks);
+        writeLongs(out, level.positions, numBlocks);
+        byte[] flags = new byte[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            flags[i] = (byte) ((level.valid[i] ? 1 : 0) | (level.dirty[i] ? 2 : 0));
+        }
+        out.write(flags);
+        writeInts(out, level.setFill, level.numSets);
+        long[] state = level.policy.state;
+        out.writeInt(state != null ? state.length : 0);
+        if (state != null) {
+            writeLongs(out, state, state.length);
+        }
+    }
+
+    /**
+     * Loads a checkpoint into a freshly created hierarchy, which must have the geometry, inclusion
+     * property, victim cache and write-back buffer the checkpoint was taken with. Returns the
+     * number of accesses simulated before the checkpoint, which the run should skip.
+     */
+    static long restore(String file, OverallCache cache) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Paths.get(file)));
+        try {
+            return restore(in, cache, file);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file + " is truncated");
+        }
+    }
+
+    private static long restore(ByteBuffer in, OverallCache cache, String file) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (in.remaining() == 0 || in.get() != MAGIC[i]) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+        }
+        int version = in.get();
+        if (version != VERSION) {
+            throw new IOException("unsupported checkpoint version " + version);
+        }
+        // the policy the state was built with, any policy may continue from it
+        int replacement = in.get();
+        int inclusion = in.get();
+        if (inclusion != cache.inclusion) {
+            throw new IllegalArgumentException(file + " was taken with a different inclusion property");
+        }
+        long accesses = in.getLong();
+        cache.writesToL2 = in.getLong();
+
+        restoreLevel(in, cache.L1, "L1", replacement, file);
+        boolean hasL2 = in.get() != 0;
+        if (hasL2 != (cache.L2 != null)) {
+            throw new IllegalArgumentException(file + (hasL2 ? " has an L2" : " has no L2"));
+        }
+        if (hasL2) {
+            restoreLevel(in, cache.L2, "L2", replacement, file);
+        }
+
+        boolean hasVictims = in.get() != 0;
+        VictimCache victims = cache.victimCache;
+        if (hasVictims != (victims != null) || (hasVictims && in.getInt() != victims.entries)) {
+            throw new IllegalArgumentException(file + " was taken with a different victim cache");
+        }
+        if (victims != null) {
+            victims.fill = in.getInt();
+            victims.clock = in.getLong();
+            victims.probes = in.getLong();
+            victims.hits = in.getLong();
+            victims.insertions = in.getLong();
+            victims.overflows = in.getLong();
+            victims.dirtyOverflows = in.getLong();
+            victims.invalidations = in.getLong();
+            victims.invalidationWritebacks = in.getLong();
+            readLongs(in, victims.addresses, victims.fill);
+            readLongs(in, victims.stamps, victims.fill);
+            readLongs(in, victims.positions, victims.fill);
+            for (int i = 0; i < victims.fill; i++) {
+                victims.dirty[i] = in.get() != 0;
+            }
+        }
+
+        boolean hasBuffer = in.get() != 0;
+        WriteBackBuffer buffer = cache.writeBuffer;
+        if (hasBuffer != (buffer != null) || (hasBuffer && in.getInt() != buffer.entries)) {
+            throw new IllegalArgumentException(file + " was taken with a different write-back buffer");
+        }
+        if (buffer != null) {
+            buffer.count = in.getInt();
+            buffer.writes = in.getLong();
+            buffer.coalesced = in.getLong();
+            buffer.drains = in.getLong();
+            buffer.readHits = in.getLong();
+            readLongs(in, buffer.addresses, buffer.count);
+            readLongs(in, buffer.positions, buffer.count);
+        }
+        return accesses;
+    }
+
+    static void restoreLevel(ByteBuffer in, CacheLevel level, String name, int replacement, String file) {
+        if (in.getInt() != level.blockSize || in.getInt() != level.associativity || in.getInt() != level.numSets) {
+            throw new IllegalArgumentException(file + " was taken with a different " + name + " geometry");
+        }
+        int numBlocks = level.numSets * level.associativity;
+        level.clock = in.getLong();
+        level.counter = in.getLong();
+        level.reads = in.getLong();
+        level.readMisses = in.getLong();
+        level.writes = in.getLong();
+        level.writeMisses = in.getLong();
+        level.writebacks = in.getLong();
+        level.invalidations = in.getLong();
+        level.invalidationWritebacks = in.getLong();
+        readLongs(in, level.tags, numBlocks);
+        readLongs(in, level.addresses, numBlocks);
+        readLongs(in, level.stamps, numBlocks);
+        readLongs(in, level.positions, numBlocks);
+        for (int i = 0; i < numBlocks; i++) {
+            byte flags = in.get();
+            level.valid[i] = (flags & 1) != 0;
+            level.dirty[i] = (flags & 2) != 0;
+        }
+        readInts(in, level.setFill, level.numSets);
+        int words = in.getInt();
+        long[] state = level.policy.state;
+        if (replacement == level.replacementPolicy && state != null && words == state.length) {
+            readLongs(in, state, words);
+        } else {
+            in.position(in.position() + words * Long.BYTES);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.writeLong(values[i]);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    // bulk copies, which keep restoring a large cache close to the cost of reading the file
+    private static void readLongs(ByteBuffer in, long[] values, int length) {
+        in.asLongBuffer().get(values, 0, length);
+        in.position(in.position() + length * Long.BYTES);
+    }
+
+    private static void readInts(ByteBuffer in, int[] values, int length) {
+        in.asIntBuffer().get(values, 0, length);
+        in.position(in.position() + length * Integer.BYTES);
+    }
+}
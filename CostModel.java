@@ -0,0 +1,55 @@
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Estimates the hardware cost of a cache configuration, for ParetoExplorer to weigh against its
+ * simulated miss counts. A model names its costs once and returns one value per name for every
+ * configuration, lower being cheaper.
+ *
+ * Models are configured with a spec, see parse:
+ *   key=value,...      FpgaCostModel with some of its coefficients changed
+ *   class:NAME         the CostModel subclass NAME, built with its no-argument constructor
+ */
+abstract class CostModel {
+    /**
+     * The names of the costs, in the order cost returns them.
+     */
+    abstract String[] names();
+
+    /**
+     * The costs of a configuration. A configuration that cannot be built at all throws an
+     * IllegalArgumentException.
+     */
+    abstract double[] cost(ParetoExplorer.DesignPoint point);
+
+    static CostModel parse(String spec) {
+        if (!spec.startsWith("class:")) {
+            return FpgaCostModel.parse(spec);
+        }
+        String name = spec.substring("class:".length());
+        try {
+            Class<?> type = Class.forName(name);
+            if (!CostModel.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException(name + " is not a CostModel");
+            }
+            return (CostModel) type.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("no cost model class " + name);
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new IllegalArgumentException("cannot construct cost model " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Bits of state in one level: the data, tag, valid and dirty bits of every block. Tags are
+     * for the 32-bit addresses the RTL caches store.
+     */
+    static long storageBits(int blockSize, int size, int assoc) {
+        int sets = size / (blockSize * assoc);
+        return (long) sets * assoc * (8L * blockSize + tagBits(blockSize, sets) + 2);
+    }
+
+    static int tagBits(int blockSize, int sets) {
+        return 32 - AddressDecoder.log2(sets) - AddressDecoder.log2(blockSize);
+    }
+}
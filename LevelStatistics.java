@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Optional instrumentation for one CacheLevel: per-set hits, misses and dirty/clean evictions,
+ * a log2 histogram of reuse distances, and a classification of every miss as compulsory,
+ * capacity or conflict. A level without statistics attached skips all of this.
+ *
+ * The reuse distance of an access is the number of distinct blocks this level saw since the
+ * last access to the same block. That is the block's position in a fully associative LRU cache,
+ * so a miss is a capacity miss when a fully associative cache of the same size would have missed
+ * too (distance >= number of blocks) and a conflict miss otherwise. With policies other than LRU
+ * the conflict count also includes misses caused by the policy itself.
+ */
+class LevelStatistics {
+    int numSets;
+    int numBlocks;
+    int blockShift;
+
+    long[] setHits;
+    long[] setMisses;
+    long[] setDirtyEvictions;
+    long[] setCleanEvictions;
+
+    long compulsoryMisses;
+    long capacityMisses;
+    long conflictMisses;
+
+    // reuseHistogram[0] counts distance 0, reuseHistogram[k] distances in [2^(k-1), 2^k)
+    long[] reuseHistogram;
+    long coldAccesses;
+
+    // the distinct blocks seen so far, keyed by the time of their last access
+    private LongIntMap nodes;
+    private RecencyTreap treap;
+    private int root;
+    private int nodeCount;
+    private long time;
+
+    public LevelStatistics(int numSets, int associativity, int blockSize) {
+        this.numSets = numSets;
+        this.numBlocks = numSets * associativity;
+        this.blockShift = Integer.numberOfTrailingZeros(blockSize);
+
+        this.setHits = new long[numSets];
+        this.setMisses = new long[numSets];
+        this.setDirtyEvictions = new long[numSets];
+        this.setCleanEvictions = new long[numSets];
+        this.reuseHistogram = new long[65];
+
+        this.nodes = new LongIntMap(1 << 12);
+        this.treap = new RecencyTreap(1 << 12);
+        this.root = -1;
+        this.nodeCount = 0;
+        this.time = 0;
+    }
+
+    void recordAccess(int setNumber, long address, boolean hit) {
+        long distance = reuseDistance(address >>> this.blockShift);
+        if (distance < 0) {
+            this.coldAccesses++;
+        } else {
+            this.reuseHistogram[64 - Long.numberOfLeadingZeros(distance)]++;
+        }
+
+        if (hit) {
+            this.setHits[setNumber]++;
+        } else {
+            this.setMisses[setNumber]++;
+            if (distance < 0) {
+                this.compulsoryMisses++;
+            } else if (distance >= this.numBlocks) {
+                this.capacityMisses++;
+            } else {
+                this.conflictMisses++;
+            }
+        }
+    }
+
+    void recordEviction(int setNumber, boolean dirty) {
+        if (dirty) {
+            this.setDirtyEvictions[setNumber]++;
+        } else {
+            this.setCleanEvictions[setNumber]++;
+        }
+    }
+
+    /**
+     * Returns the number of distinct blocks accessed since the last access to block, or -1 the
+     * first time the block is seen, and makes block the most recently accessed.
+     */
+    private long reuseDistance(long block) {
+        int node = this.nodes.get(block, -1);
+        long distance;
+        if (node < 0) {
+            node = newNode();
+            this.nodes.put(block, node);
+            distance = -1;
+        } else {
+            this.root = this.treap.remove(this.root, this.treap.key[node]);
+            distance = this.treap.above;
+        }
+
+        this.treap.key[node] = this.time++;
+        // the block now has the largest key, so it joins on the right
+        this.root = this.treap.append(this.root, node);
+        return distance;
+    }
+
+    private int newNode() {
+        if (this.nodeCount == this.treap.key.length) {
+            this.treap.grow(this.nodeCount * 2);
+        }
+        this.treap.prioritize(this.nodeCount);
+        return this.nodeCount++;
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"sets\": ").append(this.numSets);
+        sb.append(", \"blocks\": ").append(this.numBlocks);
+        sb.append(", \"compulsory_misses\": ").append(this.compulsoryMisses);
+        sb.append(", \"capacity_misses\": ").append(this.capacityMisses);
+        sb.append(", \"conflict_misses\": ").append(this.conflictMisses);
+        sb.append(", \"cold_accesses\": ").append(this.coldAccesses);
+        sb.append(", \"reuse_distance_log2_histogram\": ").append(Arrays.toString(this.reuseHistogram));
+        sb.append(", \"set_hits\": ").append(Arrays.toString(this.setHits));
+        sb.append(", \"set_misses\": ").append(Arrays.toString(this.setMisses));
+        sb.append(", \"set_dirty_evictions\": ").append(Arrays.toString(this.setDirtyEvictions));
+        sb.append(", \"set_clean_evictions\": ").append(Arrays.toString(this.setCleanEvictions));
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,77 @@
+
+/**
+ * Open addressing hash map from long keys to int values, so block addresses can be looked up
+ * without boxing. Grows when half full.
+ */
+class LongIntMap {
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    int get(long key, int missing) {
+        int slot = slot(key);
+        while (this.used[slot]) {
+            if (this.keys[slot] == key) {
+                return this.values[slot];
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return missing;
+    }
+
+    void put(long key, int value) {
+        int slot = slot(key);
+        while (this.used[slot] && this.keys[slot] != key) {
+            slot = (slot + 1) & this.mask;
+        }
+        this.values[slot] = value;
+        if (!this.used[slot]) {
+            this.used[slot] = true;
+            this.keys[slot] = key;
+            this.size++;
+            if (this.size * 2 > this.keys.length) {
+                grow();
+            }
+        }
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 33) & this.mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        boolean[] oldUsed = this.used;
+        this.keys = new long[oldKeys.length * 2];
+        this.values = new int[oldKeys.length * 2];
+        this.used = new boolean[oldKeys.length * 2];
+        this.mask = this.keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                while (this.used[slot]) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.used[slot] = true;
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+}
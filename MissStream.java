@@ -0,0 +1,283 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Runs a trace through an L1 once and records the requests it sends to a non-inclusive L2, so
+ * that any number of L2 configurations can then be simulated without parsing the trace or
+ * simulating L1 again. A non-inclusive L2 never changes what L1 holds, so the requests are the
+ * same whatever the L2 is, and replaying them gives the report of a full simulation.
+ *
+ * java MissStream capture <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <REPLACEMENT_POLICY> <trace_file> <miss_file>
+ * java MissStream replay <miss_file> <L2_SIZE> <L2_ASSOC> [-format text|json|csv] [-contents]
+ *
+ * Each L1 miss records the dirty block it evicted, then the missed block with the op of the
+ * access. As in OverallCache, the miss looks L2 up first, the dirty block is then written back,
+ * and the miss then writes the block if L2 held it and reads it otherwise. The policy of the L2
+ * is the one the L1 was captured with, and optimal replacement, which needs the whole trace to
+ * pick L2 victims, cannot be captured.
+ *
+ * Layout, big endian:
+ *   magic "CL2S", u8 version, i32 block size, L1 size, L1 associativity, u8 replacement policy,
+ *   modified UTF-8 trace file name
+ *   requests, each an unsigned LEB128 varint of kind | zigzag(block delta) << 2, where kind is
+ *   READ_MISS, WRITE_MISS or WRITEBACK and the delta is from the block number of the previous
+ *   request, wrapped to 62 bits; a varint of END ends them
+ *   i64 accesses, i64 requests, then the final L1 as Checkpoint.saveLevel writes it
+ * The block numbers fit in 62 bits for blocks of 4 bytes or more.
+ */
+class MissStream {
+    static final byte[] MAGIC = { 'C', 'L', '2', 'S' };
+    static final int VERSION = 2;
+
+    static final int READ_MISS = 0;
+    static final int WRITE_MISS = 1;
+    static final int WRITEBACK = 2;
+    static final int END = 3;
+
+    private static final long BLOCK_MASK = (1L << 62) - 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    int blockSize;
+    int l1Size;
+    int l1Assoc;
+    int replacement;
+    String traceFile;
+    long accesses;
+    long requests;
+
+    /**
+     * Simulates the trace through a fresh L1 and writes its L2 requests to missFile.
+     */
+    static MissStream capture(int blockSize, int l1Size, int l1Assoc, int replacement, String traceFile,
+            String missFile) throws IOException {
+        if (replacement == ReplacementPolicy.OPTIMAL) {
+            throw new IllegalArgumentException("optimal replacement cannot be captured");
+        }
+        if (blockSize < 4) {
+            throw new IllegalArgumentException("capturing needs a BLOCKSIZE of at least 4");
+        }
+        MissStream stream = new MissStream();
+        stream.blockSize = blockSize;
+        stream.l1Size = l1Size;
+        stream.l1Assoc = l1Assoc;
+        stream.replacement = replacement;
+        stream.traceFile = traceFile;
+
+        CacheLevel L1 = new CacheLevel(l1Assoc, l1Size, blockSize, replacement, null);
+        AddressDecoder decoder = L1.decoder;
+        int shift = decoder.offsetBits;
+        try (TraceStream in = TraceStream.open(traceFile);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(missFile), BUFFER_SIZE))) {
+            if ((1 << in.blockShift) > blockSize) {
+                throw new IllegalArgumentException(traceFile + " was reduced to " + (1 << in.blockShift)
+                        + " byte blocks and cannot be captured with BLOCKSIZE " + blockSize);
+            }
+            out.write(MAGIC);
+            out.write(VERSION);
+            out.writeInt(blockSize);
+            out.writeInt(l1Size);
+            out.writeInt(l1Assoc);
+            out.write(replacement);
+            out.writeUTF(traceFile);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int pos = 0;
+            long previous = 0;
+            while (in.next()) {
+                long address = decoder.blockAlign(in.address);
+                Block evicted = L1.performOperation(in.op, decoder.set(address), decoder.tag(address), address);
+                L1.counter++;
+                stream.accesses++;
+                if (L1.lastHit) {
+                    continue;
+                }
+                if (pos > buffer.length - 2 * 10) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                if (evicted.valid && evicted.dirty) {
+                    long block = evicted.address >>> shift;
+                    pos = writeRequest(buffer, pos, WRITEBACK, block - previous);
+                    previous = block;
+                    stream.requests++;
+                }
+                long block = address >>> shift;
+                pos = writeRequest(buffer, pos, in.op == 'w' ? WRITE_MISS : READ_MISS, block - previous);
+                previous = block;
+                stream.requests++;
+            }
+            out.write(buffer, 0, pos);
+            out.write(END);
+
+            out.writeLong(stream.accesses);
+            out.writeLong(stream.requests);
+            Checkpoint.saveLevel(out, L1);
+        }
+        return stream;
+    }
+
+    private static int writeRequest(byte[] buffer, int pos, int kind, long delta) {
+        // sign extend from 62 bits, so the zigzag value leaves room for the kind
+        delta = (delta << 2) >> 2;
+        long zigzag = (delta << 1) ^ (delta >> 63);
+        return writeVarint(buffer, pos, zigzag << 2 | kind);
+    }
+
+    private static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Simulates the requests of missFile through a non-inclusive L2 below the captured L1, and
+     * returns the hierarchy as a full simulation of the trace would leave it.
+     */
+    static OverallCache replay(String missFile, int l2Size, int l2Assoc, MissStream header) throws IOException {
+        try (InputStream raw = new FileInputStream(missFile)) {
+            DataInputStream in = new DataInputStream(raw);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException(missFile + " is not a miss stream");
+                }
+            }
+            int version = in.read();
+            if (version != VERSION) {
+                throw new IOException("unsupported miss stream version " + version);
+            }
+            header.blockSize = in.readInt();
+            header.l1Size = in.readInt();
+            header.l1Assoc = in.readInt();
+            header.replacement = in.read();
+            header.traceFile = in.readUTF();
+            if (l2Size <= 0) {
+                throw new IllegalArgumentException("replaying needs an L2");
+            }
+
+            OverallCache cache = sim_cache.createCache(header.blockSize, header.l1Size, header.l1Assoc, l2Size,
+                    l2Assoc, header.replacement, 1, null);
+            CacheLevel L2 = cache.L2;
+            AddressDecoder decoder = L2.decoder;
+            int shift = decoder.offsetBits;
+
+            // decoded straight from a buffer, the stream classes cost more per byte than the L2 does
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int pos = 0;
+            int limit = 0;
+            long previous = 0;
+            long requests = 0;
+            long writeback = -1;
+            while (true) {
+                long value = 0;
+                int bits = 0;
+                int b;
+                do {
+                    if (pos == limit) {
+                        limit = raw.read(buffer, 0, buffer.length);
+                        pos = 0;
+                        if (limit <= 0) {
+                            throw new IOException(missFile + " is truncated");
+                        }
+                    }
+                    b = buffer[pos++];
+                    value |= (long) (b & 0x7F) << bits;
+                    bits += 7;
+                } while (b < 0);
+
+                int kind = (int) value & 3;
+                if (kind == END) {
+                    break;
+                }
+                long zigzag = value >>> 2;
+                long block = (previous + ((zigzag >>> 1) ^ -(zigzag & 1))) & BLOCK_MASK;
+                previous = block;
+                requests++;
+
+                long address = block << shift;
+                if (kind == WRITEBACK) {
+                    // the miss that caused it looks L2 up before the writeback reaches L2
+                    writeback = address;
+                    continue;
+                }
+                int set = decoder.set(address);
+                long tag = decoder.tag(address);
+                boolean L2Contains = kind == WRITE_MISS && L2.contains(set, tag);
+                if (writeback != -1) {
+                    L2.performOperation('w', decoder.set(writeback), decoder.tag(writeback), writeback);
+                    writeback = -1;
+                }
+                if (L2Contains) {
+                    // OverallCache counts a read as well when a write miss finds the block in L2
+                    L2.reads++;
+                    L2.performOperation('w', set, tag, address);
+                } else {
+                    L2.performOperation('r', set, tag, address);
+                }
+                L2.counter++;
+            }
+
+            // the trailer follows the end marker in the buffer and the rest of the file
+            byte[] rest = raw.readAllBytes();
+            ByteBuffer trailer = ByteBuffer.allocate(limit - pos + rest.length);
+            trailer.put(buffer, pos, limit - pos).put(rest).flip();
+            try {
+                header.accesses = trailer.getLong();
+                header.requests = trailer.getLong();
+                Checkpoint.restoreLevel(trailer, cache.L1, "L1", header.replacement, missFile);
+            } catch (BufferUnderflowException e) {
+                throw new IOException(missFile + " is truncated");
+            }
+            if (requests != header.requests) {
+                throw new IOException(missFile + " holds " + requests + " requests instead of " + header.requests);
+            }
+            return cache;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 7 && args[0].equals("capture")) {
+            int replacement = sim_cache.parseReplacementPolicy(args[4]);
+            MissStream stream = capture(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), replacement, args[5], args[6]);
+            System.err.printf("captured %d L2 requests from %d accesses (%.2f%%)\n", stream.requests,
+                    stream.accesses, 100.0 * stream.requests / stream.accesses);
+            return;
+        }
+        if (args.length >= 4 && args[0].equals("replay")) {
+            String format = "text";
+            boolean contents = false;
+            for (int i = 4; i < args.length; i++) {
+                if (args[i].equals("-format")) {
+                    format = args[++i];
+                } else if (args[i].equals("-contents")) {
+                    contents = true;
+                }
+            }
+            if (!(format.equals("text") || format.equals("json") || format.equals("csv"))) {
+                throw new IllegalArgumentException("unknown -format " + format + ", expected text, json or csv");
+            }
+            MissStream header = new MissStream();
+            OverallCache cache = replay(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), header);
+            sim_cache.printReport(cache, null, true, header.traceFile, format, contents, null, null);
+            return;
+        }
+        System.err.println("usage: java MissStream capture <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <REPLACEMENT_POLICY>"
+                + " <trace_file> <miss_file>");
+        System.err.println("       java MissStream replay <miss_file> <L2_SIZE> <L2_ASSOC> [-format text|json|csv]"
+                + " [-contents]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Several cores, each running its own trace through a private L1, sharing an inclusive L2 that
+ * keeps the L1s coherent with a MESI directory. For every block the L2 holds, the directory
+ * records which L1s share it and whether its only sharer was granted it exclusively. A core's
+ * copy is then M if it is dirty, E if the core holds the exclusive grant, and S otherwise.
+ *
+ * java MultiCoreCache <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <L2_SIZE> <L2_ASSOC> <REPLACEMENT_POLICY>
+ *         <trace_file>... [-quantum N] [-threads N]
+ *
+ * The cores advance in epochs of quantum accesses each. Within an epoch, every core first runs
+ * its leading accesses that only touch its own L1, which are read hits and write hits in M or E.
+ * The cores do this side by side on the host threads. The rest of the epoch is then interleaved
+ * one access per core in core order. Results depend on the quantum but not on the number of
+ * threads.
+ */
+class MultiCoreCache {
+    static final int DEFAULT_QUANTUM = 100;
+
+    int cores;
+    CacheLevel[] L1s;
+    CacheLevel L2;
+
+    // directory, indexed by L2 slot
+    long[] sharers;
+    boolean[] exclusive;
+
+    long[] invalidationsReceived;
+    long[] upgrades;
+    long[] transfersSupplied;
+    long[] transfersReceived;
+
+    public MultiCoreCache(int cores, int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc,
+            int replacement) {
+        if (cores < 1 || cores > 64) {
+            throw new IllegalArgumentException("between 1 and 64 cores are supported, not " + cores);
+        }
+        if (replacement == ReplacementPolicy.OPTIMAL) {
+            throw new IllegalArgumentException("optimal replacement is not supported with several cores");
+        }
+        this.cores = cores;
+        this.L1s = new CacheLevel[cores];
+        for (int core = 0; core < cores; core++) {
+            this.L1s[core] = new CacheLevel(l1Assoc, l1Size, blockSize, replacement, null);
+        }
+        this.L2 = new CacheLevel(l2Assoc, l2Size, blockSize, replacement, null);
+
+        int l2Blocks = this.L2.numSets * this.L2.associativity;
+        this.sharers = new long[l2Blocks];
+        this.exclusive = new boolean[l2Blocks];
+        this.invalidationsReceived = new long[cores];
+        this.upgrades = new long[cores];
+        this.transfersSupplied = new long[cores];
+        this.transfersReceived = new long[cores];
+    }
+
+    // the L2 slot, and so the directory entry, of a block the L2 holds
+    int directorySlot(long address) {
+        int setNumber = this.L2.decoder.set(address);
+        return setNumber * this.L2.associativity + this.L2.getIndexOfTag(setNumber, this.L2.decoder.tag(address));
+    }
+
+    /**
+     * Whether an access only involves the core's own L1: a read hit, or a write hit on a block the
+     * core holds in M or E.
+     */
+    boolean isPrivateHit(int core, char op, long address) {
+        CacheLevel L1 = this.L1s[core];
+        int setNumber = L1.decoder.set(address);
+        int way = L1.getIndexOfTag(setNumber, L1.decoder.tag(address));
+        if (way == -1) {
+            return false;
+        }
+        if (op != 'w' || L1.dirty[setNumber * L1.associativity + way]) {
+            return true;
+        }
+        return this.exclusive[directorySlot(L1.decoder.blockAlign(address))];
+    }
+
+    void access(int core, char op, long address) {
+        CacheLevel L1 = this.L1s[core];
+        address = L1.decoder.blockAlign(address);
+        int L1SetNumber = L1.decoder.set(address);
+        long L1Tag = L1.decoder.tag(address);
+        long bit = 1L << core;
+
+        int way = L1.getIndexOfTag(L1SetNumber, L1Tag);
+        if (way != -1) {
+            if (op == 'w' && !L1.dirty[L1SetNumber * L1.associativity + way]) {
+                int slot = directorySlot(address);
+                if (!this.exclusive[slot]) {
+                    // S to M, every other copy has to go
+                    this.upgrades[core]++;
+                    invalidateSharers(this.sharers[slot] & ~bit, address, core);
+                    this.sharers[slot] = bit;
+                    this.exclusive[slot] = true;
+                }
+                // E to M needs nothing but the dirty bit
+            }
+            L1.performOperation(op, L1SetNumber, L1Tag, address);
+            L1.counter++;
+            return;
+        }
+
+        // the shared l2 supplies the block, making room for it first if needed
+        int L2SetNumber = this.L2.decoder.set(address);
+        long L2Tag = this.L2.decoder.tag(address);
+        Block evicted = this.L2.performOperation('r', L2SetNumber, L2Tag, address);
+        int slot = L2SetNumber * this.L2.associativity + this.L2.getIndexOfTag(L2SetNumber, L2Tag);
+        if (!this.L2.lastHit) {
+            if (evicted.valid) {
+                // the directory entry still describes the evicted block
+                backInvalidate(this.sharers[slot], evicted.address);
+            }
+            this.sharers[slot] = 0;
+            this.exclusive[slot] = false;
+        }
+        this.L2.counter++;
+
+        long others = this.sharers[slot] & ~bit;
+        if (op == 'w') {
+            invalidateSharers(others, address, core);
+            this.sharers[slot] = bit;
+            this.exclusive[slot] = true;
+        } else if (others == 0) {
+            this.sharers[slot] = bit;
+            this.exclusive[slot] = true;
+        } else {
+            if (this.exclusive[slot]) {
+                // the single other copy drops to S, an M copy supplies its data and updates l2
+                int owner = Long.numberOfTrailingZeros(others);
+                CacheLevel ownerL1 = this.L1s[owner];
+                if (ownerL1.clean(ownerL1.decoder.set(address), ownerL1.decoder.tag(address))) {
+                    this.transfersSupplied[owner]++;
+                    this.transfersReceived[core]++;
+                    this.L2.performOperation('w', L2SetNumber, L2Tag, address);
+                }
+            }
+            this.sharers[slot] |= bit;
+            this.exclusive[slot] = false;
+        }
+
+        Block victim = L1.performOperation(op, L1SetNumber, L1Tag, address);
+        L1.counter++;
+        if (victim.valid) {
+            int victimSlot = directorySlot(victim.address);
+            this.sharers[victimSlot] &= ~bit;
+            if (victim.dirty) {
+                this.L2.performOperation('w', this.L2.decoder.set(victim.address), this.L2.decoder.tag(victim.address),
+                        victim.address);
+            }
+        }
+    }
+
+    /**
+     * Removes the copies held by the cores in mask so that requester can write the block. A dirty
+     * copy hands its data straight to the requester.
+     */
+    private void invalidateSharers(long mask, long address, int requester) {
+        while (mask != 0) {
+            int core = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            CacheLevel L1 = this.L1s[core];
+            int setNumber = L1.decoder.set(address);
+            int way = L1.getIndexOfTag(setNumber, L1.decoder.tag(address));
+            if (way == -1) {
+                continue;
+            }
+            int slot = setNumber * L1.associativity + way;
+            this.invalidationsReceived[core]++;
+            if (L1.dirty[slot]) {
+                this.transfersSupplied[core]++;
+                this.transfersReceived[requester]++;
+            }
+            L1.remove(slot);
+        }
+    }
+
+    // removes a block the l2 evicted from every l1, dirty copies are written to memory
+    private void backInvalidate(long mask, long address) {
+        while (mask != 0) {
+            int core = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            CacheLevel L1 = this.L1s[core];
+            L1.invalidate(L1.decoder.set(address), L1.decoder.tag(address));
+        }
+    }
+
+    /**
+     * Runs every trace to the end, quantum accesses per core per epoch, with the private hits at
+     * the start of each epoch spread over threads.
+     */
+    void simulate(Trace[] traces, int quantum, int threads) throws InterruptedException, ExecutionException {
+        int[] next = new int[this.cores];
+        int[] epochEnd = new int[this.cores];
+
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int core = 0; core < this.cores; core++) {
+            int c = core;
+            tasks.add(() -> {
+                next[c] = runPrivateHits(c, traces[c], next[c], epochEnd[c]);
+                return null;
+            });
+        }
+
+        try {
+            while (true) {
+                boolean remaining = false;
+                for (int core = 0; core < this.cores; core++) {
+                    epochEnd[core] = (int) Math.min((long) next[core] + quantum, traces[core].size);
+                    remaining |= next[core] < epochEnd[core];
+                }
+                if (!remaining) {
+                    break;
+                }
+
+                if (pool != null) {
+                    for (Future<Void> future : pool.invokeAll(tasks)) {
+                        future.get();
+                    }
+                } else {
+                    for (int core = 0; core < this.cores; core++) {
+                        next[core] = runPrivateHits(core, traces[core], next[core], epochEnd[core]);
+                    }
+                }
+
+                // interleave what is left of the epoch one access per core
+                boolean progress = true;
+                while (progress) {
+                    progress = false;
+                    for (int core = 0; core < this.cores; core++) {
+                        if (next[core] < epochEnd[core]) {
+                            int i = next[core]++;
+                            access(core, (char) traces[core].ops[i], traces[core].addresses[i]);
+                            progress = true;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // only touches the core's own l1, so cores can run this at the same time
+    private int runPrivateHits(int core, Trace trace, int start, int end) {
+        CacheLevel L1 = this.L1s[core];
+        int i = start;
+        while (i < end) {
+            char op = (char) trace.ops[i];
+            long address = L1.decoder.blockAlign(trace.addresses[i]);
+            if (!isPrivateHit(core, op, address)) {
+                break;
+            }
+            L1.performOperation(op, L1.decoder.set(address), L1.decoder.tag(address), address);
+            L1.counter++;
+            i++;
+        }
+        return i;
+    }
+
+    long memoryTraffic() {
+        long traffic = this.L2.readMisses + this.L2.writebacks;
+        for (CacheLevel L1 : this.L1s) {
+            traffic += L1.invalidationWritebacks;
+        }
+        return traffic;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (args.length < 7) {
+            System.err.println("usage: java MultiCoreCache <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <L2_SIZE> <L2_ASSOC>"
+                    + " <REPLACEMENT_POLICY> <trace_file>... [-quantum N] [-threads N]");
+            System.exit(1);
+        }
+        int blockSize = Integer.parseInt(args[0]);
+        int l1Size = Integer.parseInt(args[1]);
+        int l1Assoc = Integer.parseInt(args[2]);
+        int l2Size = Integer.parseInt(args[3]);
+        int l2Assoc = Integer.parseInt(args[4]);
+        String replacementPolicy = args[5];
+
+        List<String> traceFiles = new ArrayList<String>();
+        int quantum = DEFAULT_QUANTUM;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 6; i < args.length; i++) {
+            if (args[i].equals("-quantum")) {
+                quantum = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                traceFiles.add(args[i]);
+            }
+        }
+        if (quantum < 1) {
+            throw new IllegalArgumentException("the quantum must be at least one access");
+        }
+
+        MultiCoreCache cache = new MultiCoreCache(traceFiles.size(), blockSize, l1Size, l1Assoc, l2Size, l2Assoc,
+                sim_cache.parseReplacementPolicy(replacementPolicy));
+        Trace[] traces = new Trace[traceFiles.size()];
+        for (int core = 0; core < traces.length; core++) {
+            traces[core] = Trace.read(traceFiles.get(core));
+            sim_cache.checkBlockSize(traces[core], blockSize, traceFiles.get(core));
+        }
+
+        cache.simulate(traces, quantum, Math.min(threads, traces.length));
+        cache.print(traceFiles, replacementPolicy, quantum);
+    }
+
+    void print(List<String> traceFiles, String replacementPolicy, int quantum) {
+        StringBuilder out = new StringBuilder();
+        out.append("===== Simulator configuration =====\n");
+        out.append("CORES:\t\t\t").append(this.cores).append('\n');
+        out.append("BLOCKSIZE:\t\t").append(this.L2.blockSize).append('\n');
+        out.append("L1_SIZE:\t\t").append(this.L1s[0].cacheSize).append('\n');
+        out.append("L1_ASSOC:\t\t").append(this.L1s[0].associativity).append('\n');
+        out.append("L2_SIZE:\t\t").append(this.L2.cacheSize).append('\n');
+        out.append("L2_ASSOC:\t\t").append(this.L2.associativity).append('\n');
+        out.append("REPLACEMENT POLICY:\t").append(replacementPolicy).append('\n');
+        out.append("QUANTUM:\t\t").append(quantum).append('\n');
+
+        long invalidations = 0;
+        long upgrades = 0;
+        long transfers = 0;
+        for (int core = 0; core < this.cores; core++) {
+            CacheLevel L1 = this.L1s[core];
+            out.append("===== Core ").append(core).append(": ").append(traceFiles.get(core)).append(" =====\n");
+            out.append("a. number of L1 reads:\t\t").append(L1.reads).append('\n');
+            out.append("b. number of L1 read misses:\t").append(L1.readMisses).append('\n');
+            out.append("c. number of L1 writes:\t\t").append(L1.writes).append('\n');
+            out.append("d. number of L1 write misses:\t").append(L1.writeMisses).append('\n');
+            out.append(String.format("e. L1 miss rate:\t\t%.6f\n",
+                    (double) (L1.readMisses + L1.writeMisses) / (L1.reads + L1.writes)));
+            out.append("f. number of L1 writebacks:\t").append(L1.writebacks).append('\n');
+            out.append("g. coherence invalidations:\t").append(this.invalidationsReceived[core]).append('\n');
+            out.append("h. upgrades:\t\t\t").append(this.upgrades[core]).append('\n');
+            out.append("i. transfers supplied:\t\t").append(this.transfersSupplied[core]).append('\n');
+            out.append("j. transfers received:\t\t").append(this.transfersReceived[core]).append('\n');
+            out.append("k. L2 back-invalidations:\t").append(L1.invalidations).append('\n');
+            invalidations += this.invalidationsReceived[core];
+            upgrades += this.upgrades[core];
+            transfers += this.transfersSupplied[core];
+        }
+
+        out.append("===== Shared L2 =====\n");
+        out.append("a. number of L2 reads:\t\t").append(this.L2.reads).append('\n');
+        out.append("b. number of L2 read misses:\t").append(this.L2.readMisses).append('\n');
+        out.append("c. number of L2 writes:\t\t").append(this.L2.writes).append('\n');
+        out.append("d. number of L2 write misses:\t").append(this.L2.writeMisses).append('\n');
+        out.append(String.format("e. L2 miss rate:\t\t%.6f\n",
+                (double) (this.L2.readMisses + this.L2.writeMisses) / this.L2.reads));
+        out.append("f. number of L2 writebacks:\t").append(this.L2.writebacks).append('\n');
+        out.append("===== Coherence =====\n");
+        out.append("coherence invalidations:\t").append(invalidations).append('\n');
+        out.append("upgrades:\t\t\t").append(upgrades).append('\n');
+        out.append("cache-to-cache transfers:\t").append(transfers).append('\n');
+        out.append("total memory traffic:\t\t").append(memoryTraffic()).append('\n');
+        System.out.print(out);
+    }
+}
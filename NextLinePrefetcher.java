@@ -0,0 +1,23 @@
+/**
+ * Fetches the next degree blocks after every miss. Together with the first hit on a prefetched
+ * block also counting as a miss, this is tagged next-N-line prefetching.
+ */
+class NextLinePrefetcher extends Prefetcher {
+    int degree;
+
+    public NextLinePrefetcher(String spec, int blockSize, int degree) {
+        super(spec, blockSize, degree);
+        this.degree = degree;
+    }
+
+    @Override
+    int observe(long address, boolean miss) {
+        if (!miss) {
+            return 0;
+        }
+        for (int i = 0; i < this.degree; i++) {
+            this.candidates[i] = address + ((long) (i + 1) << this.blockShift);
+        }
+        return this.degree;
+    }
+}
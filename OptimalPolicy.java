@@ -0,0 +1,46 @@
+/**
+ * Belady's optimal replacement: evicts the block whose next reference is furthest in the future,
+ * found by following the level's next-use index from each block's last known position. Hits, read
+ * or write, move a block to the front, which only decides ties between blocks never used again,
+ * and a new block takes the place of the one it evicts in the set order.
+ */
+class OptimalPolicy extends ReplacementPolicy {
+    OptimalPolicy(CacheLevel level) {
+        super(level);
+    }
+
+    @Override
+    void hit(int setNumber, int slot, boolean write) {
+        touch(slot);
+    }
+
+    @Override
+    void fill(int setNumber, int slot, boolean evicted, boolean prefetch) {
+        if (!evicted) {
+            touch(slot);
+        }
+    }
+
+    @Override
+    int victim(int setNumber) {
+        CacheLevel level = this.level;
+        int base = setNumber * this.associativity;
+        int victim = 0;
+        long maxIndex = -1;
+
+        for (int way = 0; way < this.associativity; way++) {
+            // get the next time the block is used, blocks never used again share the largest value
+            int slot = base + way;
+            long nextUse = level.nextUse.nextUseFrom(level.positions[slot], level.counter);
+            level.positions[slot] = nextUse;
+
+            // ties can only happen between unused blocks and go to the block nearest the front
+            if (nextUse > maxIndex || (nextUse == maxIndex && level.stamps[slot] > level.stamps[base + victim])) {
+                maxIndex = nextUse;
+                victim = way;
+            }
+        }
+
+        return victim;
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulates many cache configurations in parallel. Each trace is parsed once and shared read-only
+ * between the workers, and every configuration gets its own OverallCache.
+ *
+ * java ParameterSweep <sweep_file> [-threads N] [-format csv|json] [-out file]
+ *
+ * The sweep file can list axes, and every combination of their values is simulated:
+ *   BLOCKSIZE 32 64
+ *   L1_SIZE 1024 4096
+ *   L1_ASSOC 2 4
+ *   L2_SIZE 0 4096
+ *   L2_ASSOC 8
+ *   REPLACEMENT_POLICY LRU FIFO
+ *   INCLUSION_PROPERTY non-inclusive
+ *   TRACE gcc_trace.txt go_trace.txt
+ * and/or individual configurations, in the same order as the sim_cache arguments:
+ *   32 1024 4 4096 8 LRU non-inclusive gcc_trace.txt
+ * Lines starting with # are comments.
+ */
+class ParameterSweep {
+    static final String[] AXES = { "BLOCKSIZE", "L1_SIZE", "L1_ASSOC", "L2_SIZE", "L2_ASSOC",
+            "REPLACEMENT_POLICY", "INCLUSION_PROPERTY", "TRACE" };
+
+    /**
+     * One configuration, with the same fields as the sim_cache command line.
+     */
+    static class SweepPoint {
+        int blockSize;
+        int l1Size;
+        int l1Assoc;
+        int l2Size;
+        int l2Assoc;
+        String replacementPolicy;
+        String inclusionProperty;
+        String traceFile;
+
+        SweepPoint(String[] fields) {
+            this.blockSize = Integer.parseInt(fields[0]);
+            this.l1Size = Integer.parseInt(fields[1]);
+            this.l1Assoc = Integer.parseInt(fields[2]);
+            this.l2Size = Integer.parseInt(fields[3]);
+            // the L2 associativity is meaningless without an L2
+            this.l2Assoc = this.l2Size > 0 ? Integer.parseInt(fields[4]) : 0;
+            this.replacementPolicy = fields[5];
+            this.inclusionProperty = fields[6];
+            this.traceFile = fields[7];
+        }
+
+        String key() {
+            return this.blockSize + " " + this.l1Size + " " + this.l1Assoc + " " + this.l2Size + " " + this.l2Assoc
+                    + " " + this.replacementPolicy + " " + this.inclusionProperty + " " + this.traceFile;
+        }
+
+        boolean isValid() {
+            return this.blockSize > 0 && Integer.bitCount(this.blockSize) == 1 && this.l1Assoc > 0
+                    && (long) this.blockSize * this.l1Assoc <= this.l1Size
+                    && (this.l2Size == 0 || (this.l2Assoc > 0 && (long) this.blockSize * this.l2Assoc <= this.l2Size));
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String sweepFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String format = "csv";
+        String outFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-format")) {
+                format = args[++i];
+            } else if (args[i].equals("-out")) {
+                outFile = args[++i];
+            } else {
+                sweepFile = args[i];
+            }
+        }
+        if (sweepFile == null || !(format.equals("csv") || format.equals("json"))) {
+            System.err.println("usage: java ParameterSweep <sweep_file> [-threads N] [-format csv|json] [-out file]");
+            System.exit(1);
+        }
+
+        List<SweepPoint> points = readSweepFile(sweepFile);
+        List<SimulationResult> results = run(points, threads);
+
+        OutputStream stream = outFile != null ? new FileOutputStream(outFile) : System.out;
+        PrintStream out = new PrintStream(stream, false);
+        writeResults(out, results, format);
+        out.flush();
+        if (outFile != null) {
+            out.close();
+        }
+    }
+
+    static List<SweepPoint> readSweepFile(String sweepFile) throws IOException {
+        Map<String, String[]> axes = new HashMap<String, String[]>();
+        Map<String, SweepPoint> points = new LinkedHashMap<String, SweepPoint>();
+
+        for (String line : Files.readAllLines(Paths.get(sweepFile))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (isAxis(fields[0])) {
+                String[] values = new String[fields.length - 1];
+                System.arraycopy(fields, 1, values, 0, values.length);
+                axes.put(fields[0], values);
+            } else if (fields.length == 8) {
+                addPoint(points, new SweepPoint(fields));
+            } else {
+                throw new IllegalArgumentException("unrecognized sweep line: " + line);
+            }
+        }
+
+        if (!axes.isEmpty()) {
+            // fill in the axes that make sense to leave out
+            axes.putIfAbsent("L2_SIZE", new String[] { "0" });
+            axes.putIfAbsent("L2_ASSOC", new String[] { "0" });
+            axes.putIfAbsent("REPLACEMENT_POLICY", new String[] { "LRU" });
+            axes.putIfAbsent("INCLUSION_PROPERTY", new String[] { "non-inclusive" });
+            for (String axis : AXES) {
+                if (!axes.containsKey(axis)) {
+                    throw new IllegalArgumentException("sweep file is missing the " + axis + " axis");
+                }
+            }
+            expandGrid(axes, new String[AXES.length], 0, points);
+        }
+
+        return new ArrayList<SweepPoint>(points.values());
+    }
+
+    static boolean isAxis(String name) {
+        for (String axis : AXES) {
+            if (axis.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void expandGrid(Map<String, String[]> axes, String[] fields, int depth, Map<String, SweepPoint> points) {
+        if (depth == AXES.length) {
+            addPoint(points, new SweepPoint(fields.clone()));
+            return;
+        }
+        for (String value : axes.get(AXES[depth])) {
+            fields[depth] = value;
+            expandGrid(axes, fields, depth + 1, points);
+        }
+    }
+
+    static void addPoint(Map<String, SweepPoint> points, SweepPoint point) {
+        if (!point.isValid()) {
+            System.err.println("skipping invalid configuration: " + point.key());
+            return;
+        }
+        points.putIfAbsent(point.key(), point);
+    }
+
+    /**
+     * Simulates every point on a fixed pool of workers and returns the results in point order.
+     */
+    static List<SimulationResult> run(List<SweepPoint> points, int threads)
+            throws IOException, InterruptedException, ExecutionException {
+        // every trace is parsed once up front, the buffers are never written after this
+        Map<String, Trace> traces = new HashMap<String, Trace>();
+        for (SweepPoint point : points) {
+            if (!traces.containsKey(point.traceFile)) {
+                traces.put(point.traceFile, Trace.read(point.traceFile));
+            }
+            sim_cache.checkBlockSize(traces.get(point.traceFile), point.blockSize, point.traceFile);
+        }
+
+        // optimal runs with the same trace and block size share one next-use table
+        Map<String, NextUseIndex> nextUses = new ConcurrentHashMap<String, NextUseIndex>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SimulationResult>> futures = new ArrayList<Future<SimulationResult>>();
+            for (SweepPoint point : points) {
+                Trace trace = traces.get(point.traceFile);
+                futures.add(pool.submit(() -> simulate(point, trace, nextUses)));
+            }
+
+            List<SimulationResult> results = new ArrayList<SimulationResult>();
+            for (Future<SimulationResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static SimulationResult simulate(SweepPoint point, Trace trace, Map<String, NextUseIndex> nextUses) {
+        int replacementPolicyInt = sim_cache.parseReplacementPolicy(point.replacementPolicy);
+        int inclusionPropertyInt = sim_cache.parseInclusionProperty(point.inclusionProperty);
+
+        NextUseIndex nextUse = null;
+        if (replacementPolicyInt == ReplacementPolicy.OPTIMAL) {
+            nextUse = nextUses.computeIfAbsent(point.traceFile + "@" + point.blockSize,
+                    key -> new NextUseIndex(trace, point.blockSize));
+        }
+
+        OverallCache cache = sim_cache.createCache(point.blockSize, point.l1Size, point.l1Assoc, point.l2Size,
+                point.l2Assoc, replacementPolicyInt, inclusionPropertyInt, nextUse);
+        cache.simulate(trace);
+        return new SimulationResult(cache, point.traceFile, point.replacementPolicy, point.inclusionProperty);
+    }
+
+    static void writeResults(PrintStream out, List<SimulationResult> results, String format) {
+        if (format.equals("json")) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                out.print("  " + results.get(i).toJson());
+                out.println(i + 1 < results.size() ? "," : "");
+            }
+            out.println("]");
+        } else {
+            out.println(SimulationResult.csvHeader());
+            for (SimulationResult result : results) {
+                out.println(result.toCsv());
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the configurations of a design space that no other configuration beats on both its
+ * simulated misses and its hardware cost, without simulating all of them.
+ *
+ * java ParetoExplorer <space_file> [-threads N] [-objectives traffic,area,power] [-cost <spec>]
+ *         [-prune all|prefix|none] [-chunk N] [-format csv|json] [-out file]
+ *
+ * The space file has the axes and configurations of a ParameterSweep file, and every
+ * configuration is simulated over all of its traces. The objectives, all minimized, are any of
+ * the simulated counts summed over the traces, traffic (memory traffic), l1_misses and l2_misses,
+ * and the costs named by the CostModel given with -cost (area and power by default, see
+ * FpgaCostModel). Optimal replacement cannot be built and has no cost.
+ *
+ * The counts only grow as a trace is simulated, so the counts part way through a configuration
+ * are a lower bound on its totals. Once a configuration that has been simulated in full beats that
+ * bound and costs no more, the configuration cannot be on the frontier and is abandoned. This is
+ * the prefix pruning of -prune prefix, the default, and it never changes the frontier.
+ *
+ * -prune all is a heuristic on top of it: the counts are also assumed not to grow with L1_SIZE,
+ * L1_ASSOC, L2_SIZE or L2_ASSOC when the block size, policies and presence of an L2 stay the same.
+ * The largest configurations of each such family are simulated first, and a configuration is
+ * skipped without being simulated when one that was simulated beats the counts of the larger
+ * configurations of its family. The assumption holds for LRU when only the associativity grows,
+ * but not in general, and where it breaks real frontier points can be skipped. Every pair of
+ * simulated configurations that breaks it is counted and reported.
+ *
+ * The rest are simulated in order of increasing cost, so cheap configurations are done early and
+ * prune the expensive ones, on a fixed pool of workers that share every trace read-only.
+ */
+class ParetoExplorer {
+    static final String[] METRICS = { "traffic", "l1_misses", "l2_misses" };
+
+    static final String[] COLUMNS = { "blocksize", "l1_size", "l1_assoc", "l2_size", "l2_assoc",
+            "replacement_policy", "inclusion_property", "accesses", "l1_miss_rate", "l2_miss_rate",
+            "memory_traffic", "l1_misses", "l2_misses" };
+
+    /**
+     * One configuration of the space, the same for every trace.
+     */
+    static class DesignPoint {
+        int blockSize;
+        int l1Size;
+        int l1Assoc;
+        int l2Size;
+        int l2Assoc;
+        int replacement;
+        int inclusion;
+        double[] cost;
+
+        // summed over every trace once simulated in full
+        long accesses;
+        long l2Reads;
+        long[] metrics = new long[METRICS.length];
+
+        DesignPoint(ParameterSweep.SweepPoint point) {
+            this.blockSize = point.blockSize;
+            this.l1Size = point.l1Size;
+            this.l1Assoc = point.l1Assoc;
+            this.l2Size = point.l2Size;
+            this.l2Assoc = point.l2Assoc;
+            this.replacement = sim_cache.parseReplacementPolicy(point.replacementPolicy);
+            this.inclusion = sim_cache.parseInclusionProperty(point.inclusionProperty);
+        }
+
+        String key() {
+            return this.blockSize + " " + this.l1Size + " " + this.l1Assoc + " " + this.l2Size + " " + this.l2Assoc
+                    + " " + this.replacement + " " + this.inclusion;
+        }
+
+        /**
+         * True if this point is at least as large as other in every dimension the counts are
+         * assumed not to grow with, and the same in the others.
+         */
+        boolean covers(DesignPoint other) {
+            return this.blockSize == other.blockSize && this.replacement == other.replacement
+                    && this.inclusion == other.inclusion && (this.l2Size > 0) == (other.l2Size > 0)
+                    && this.l1Size >= other.l1Size && this.l1Assoc >= other.l1Assoc
+                    && this.l2Size >= other.l2Size && this.l2Assoc >= other.l2Assoc;
+        }
+
+        Object[] values() {
+            long l1Misses = this.metrics[1];
+            long l2Misses = this.metrics[2];
+            return new Object[] { this.blockSize, this.l1Size, this.l1Assoc, this.l2Size, this.l2Assoc,
+                    ReplacementPolicy.NAMES[this.replacement], sim_cache.INCLUSION_NAMES[this.inclusion],
+                    this.accesses, (double) l1Misses / this.accesses,
+                    this.l2Size > 0 ? (double) l2Misses / this.l2Reads : 0.0, this.metrics[0], l1Misses, l2Misses };
+        }
+    }
+
+    final List<DesignPoint> points;
+    final List<Trace> traces;
+    final CostModel model;
+    // for each objective, the METRICS index of a count, or -1 - the index of a cost
+    final int[] objectives;
+    final boolean pruneMonotone;
+    final boolean prunePrefix;
+    final int chunk;
+
+    // points simulated in full, guarded by itself
+    final List<DesignPoint> evaluated = new ArrayList<DesignPoint>();
+    final AtomicLong simulatedAccesses = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong abandoned = new AtomicLong();
+
+    ParetoExplorer(List<DesignPoint> points, List<Trace> traces, CostModel model, int[] objectives, String prune,
+            int chunk) {
+        this.points = points;
+        this.traces = traces;
+        this.model = model;
+        this.objectives = objectives;
+        this.pruneMonotone = prune.equals("all");
+        this.prunePrefix = !prune.equals("none");
+        this.chunk = chunk;
+        for (DesignPoint point : points) {
+            point.cost = model.cost(point);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String spaceFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String objectiveList = "traffic,area,power";
+        String costSpec = "default";
+        String prune = "prefix";
+        int chunk = 1 << 14;
+        String format = "csv";
+        String outFile = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-objectives")) {
+                objectiveList = args[++i];
+            } else if (args[i].equals("-cost")) {
+                costSpec = args[++i];
+            } else if (args[i].equals("-prune")) {
+                prune = args[++i];
+            } else if (args[i].equals("-chunk")) {
+                chunk = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-format")) {
+                format = args[++i];
+            } else if (args[i].equals("-out")) {
+                outFile = args[++i];
+            } else {
+                spaceFile = args[i];
+            }
+        }
+        if (spaceFile == null || !(format.equals("csv") || format.equals("json"))
+                || !(prune.equals("all") || prune.equals("prefix") || prune.equals("none")) || chunk < 1) {
+            System.err.println("usage: java ParetoExplorer <space_file> [-threads N] [-objectives traffic,area,power]"
+                    + " [-cost <spec>] [-prune all|prefix|none] [-chunk N] [-format csv|json] [-out file]");
+            System.exit(1);
+        }
+
+        CostModel model = CostModel.parse(costSpec);
+        int[] objectives = parseObjectives(objectiveList, model);
+
+        // every distinct configuration, over every distinct trace
+        Map<String, DesignPoint> designs = new LinkedHashMap<String, DesignPoint>();
+        List<String> traceFiles = new ArrayList<String>();
+        for (ParameterSweep.SweepPoint point : ParameterSweep.readSweepFile(spaceFile)) {
+            DesignPoint design = new DesignPoint(point);
+            designs.putIfAbsent(design.key(), design);
+            if (!traceFiles.contains(point.traceFile)) {
+                traceFiles.add(point.traceFile);
+            }
+        }
+        List<DesignPoint> points = new ArrayList<DesignPoint>(designs.values());
+        List<Trace> traces = new ArrayList<Trace>();
+        for (String traceFile : traceFiles) {
+            Trace trace = Trace.read(traceFile);
+            for (DesignPoint point : points) {
+                sim_cache.checkBlockSize(trace, point.blockSize, traceFile);
+            }
+            traces.add(trace);
+        }
+
+        ParetoExplorer explorer = new ParetoExplorer(points, traces, model, objectives, prune, chunk);
+        List<DesignPoint> frontier = explorer.run(threads);
+
+        long total = 0;
+        for (Trace trace : traces) {
+            total += trace.size;
+        }
+        total *= points.size();
+        System.err.printf("%d configurations: %d simulated in full, %d skipped by monotonicity, %d abandoned part way;"
+                + " %d on the frontier\n", points.size(), explorer.evaluated.size(), explorer.skipped.get(),
+                explorer.abandoned.get(), frontier.size());
+        System.err.printf("simulated %d of %d accesses (%.1f%%)\n", explorer.simulatedAccesses.get(), total,
+                100.0 * explorer.simulatedAccesses.get() / total);
+        if (explorer.pruneMonotone) {
+            int violations = explorer.monotonicityViolations();
+            if (violations > 0) {
+                System.err.println("warning: " + violations + " pairs of simulated configurations have more misses"
+                        + " in the larger one, so the frontier may be missing points; -prune prefix gives the exact"
+                        + " frontier");
+            }
+        }
+
+        OutputStream stream = outFile != null ? new FileOutputStream(outFile) : System.out;
+        PrintStream out = new PrintStream(stream, false);
+        explorer.writeFrontier(out, frontier, format);
+        out.flush();
+        if (outFile != null) {
+            out.close();
+        }
+    }
+
+    static int[] parseObjectives(String list, CostModel model) {
+        String[] names = list.split(",");
+        int[] objectives = new int[names.length];
+        String[] costs = model.names();
+        for (int i = 0; i < names.length; i++) {
+            objectives[i] = Integer.MIN_VALUE;
+            for (int m = 0; m < METRICS.length; m++) {
+                if (METRICS[m].equals(names[i])) {
+                    objectives[i] = m;
+                }
+            }
+            for (int c = 0; c < costs.length; c++) {
+                if (costs[c].equals(names[i])) {
+                    objectives[i] = -1 - c;
+                }
+            }
+            if (objectives[i] == Integer.MIN_VALUE) {
+                throw new IllegalArgumentException("unknown objective " + names[i] + ", expected one of "
+                        + String.join(", ", METRICS) + ", " + String.join(", ", costs));
+            }
+        }
+        return objectives;
+    }
+
+    /**
+     * Explores the space on a fixed pool of workers and returns the frontier, ordered by the
+     * objectives.
+     */
+    List<DesignPoint> run(int threads) throws InterruptedException, ExecutionException {
+        List<DesignPoint> first = new ArrayList<DesignPoint>();
+        List<DesignPoint> rest = new ArrayList<DesignPoint>();
+        for (DesignPoint point : this.points) {
+            boolean largest = true;
+            if (this.pruneMonotone) {
+                for (DesignPoint other : this.points) {
+                    if (other != point && other.covers(point) && !point.covers(other)) {
+                        largest = false;
+                        break;
+                    }
+                }
+            }
+            (this.pruneMonotone && largest ? first : rest).add(point);
+        }
+        rest.sort(Comparator.comparing(point -> point.cost, ParetoExplorer::compareVectors));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // the largest of each family bound the rest, so they are all simulated in full first
+            runAll(pool, first, false);
+            runAll(pool, rest, true);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<DesignPoint> frontier = new ArrayList<DesignPoint>();
+        for (DesignPoint point : this.evaluated) {
+            if (!dominated(objectives(point))) {
+                frontier.add(point);
+            }
+        }
+        // points with equal objectives finish in any order, so the key keeps the output stable
+        frontier.sort(Comparator.<DesignPoint, double[]>comparing(this::objectives, ParetoExplorer::compareVectors)
+                .thenComparing(DesignPoint::key));
+        return frontier;
+    }
+
+    private static int compareVectors(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int order = Double.compare(a[i], b[i]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return 0;
+    }
+
+    private void runAll(ExecutorService pool, List<DesignPoint> points, boolean prune)
+            throws InterruptedException, ExecutionException {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (DesignPoint point : points) {
+            futures.add(pool.submit(() -> evaluate(point, prune)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Simulates a point over every trace, unless it can be shown off the frontier first.
+     */
+    void evaluate(DesignPoint point, boolean prune) {
+        long[] partial = new long[METRICS.length];
+        if (prune && this.pruneMonotone && beaten(point, partial)) {
+            this.skipped.incrementAndGet();
+            return;
+        }
+        long accesses = 0;
+        long l2Reads = 0;
+        for (Trace trace : this.traces) {
+            OverallCache cache = sim_cache.createCache(point.blockSize, point.l1Size, point.l1Assoc, point.l2Size,
+                    point.l2Assoc, point.replacement, point.inclusion, null);
+            for (int from = 0; from < trace.size; from += this.chunk) {
+                int to = (int) Math.min(trace.size, (long) from + this.chunk);
+                cache.simulate(trace, from, to);
+                this.simulatedAccesses.addAndGet(to - from);
+                if (prune && this.prunePrefix && to < trace.size) {
+                    long[] counts = counts(cache);
+                    for (int m = 0; m < METRICS.length; m++) {
+                        counts[m] += partial[m];
+                    }
+                    if (beaten(point, counts)) {
+                        this.abandoned.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+            cache.finish();
+            long[] counts = counts(cache);
+            for (int m = 0; m < METRICS.length; m++) {
+                partial[m] += counts[m];
+            }
+            accesses += trace.size;
+            l2Reads += cache.L2 != null ? cache.L2.reads : 0;
+        }
+        point.metrics = partial;
+        point.accesses = accesses;
+        point.l2Reads = l2Reads;
+        synchronized (this.evaluated) {
+            this.evaluated.add(point);
+        }
+    }
+
+    private static long[] counts(OverallCache cache) {
+        long l2Misses = cache.L2 != null ? cache.L2.readMisses + cache.L2.writeMisses : 0;
+        return new long[] { cache.memoryTraffic(), cache.L1.readMisses + cache.L1.writeMisses, l2Misses };
+    }
+
+    /**
+     * True if a point simulated in full beats every count the point can still end up with: the
+     * counts so far, and under -prune all those of the simulated points that cover it.
+     */
+    private boolean beaten(DesignPoint point, long[] counts) {
+        synchronized (this.evaluated) {
+            long[] bound = counts.clone();
+            if (this.pruneMonotone) {
+                for (DesignPoint other : this.evaluated) {
+                    if (other.covers(point)) {
+                        for (int m = 0; m < METRICS.length; m++) {
+                            bound[m] = Math.max(bound[m], other.metrics[m]);
+                        }
+                    }
+                }
+            }
+            return dominated(objectives(point, bound));
+        }
+    }
+
+    double[] objectives(DesignPoint point) {
+        return objectives(point, point.metrics);
+    }
+
+    private double[] objectives(DesignPoint point, long[] metrics) {
+        double[] values = new double[this.objectives.length];
+        for (int i = 0; i < values.length; i++) {
+            int objective = this.objectives[i];
+            values[i] = objective >= 0 ? metrics[objective] : point.cost[-1 - objective];
+        }
+        return values;
+    }
+
+    /**
+     * True if a point simulated in full is no worse in every objective and better in one. Ties
+     * are kept, so points with the same objectives all make the frontier.
+     */
+    private boolean dominated(double[] values) {
+        synchronized (this.evaluated) {
+            for (DesignPoint other : this.evaluated) {
+                double[] others = objectives(other);
+                boolean better = false;
+                boolean worse = false;
+                for (int i = 0; i < values.length && !worse; i++) {
+                    better |= others[i] < values[i];
+                    worse = others[i] > values[i];
+                }
+                if (better && !worse) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The pairs of simulated points where the larger has a higher count in one of the objectives.
+     */
+    int monotonicityViolations() {
+        int violations = 0;
+        for (DesignPoint larger : this.evaluated) {
+            for (DesignPoint smaller : this.evaluated) {
+                if (larger == smaller || !larger.covers(smaller)) {
+                    continue;
+                }
+                for (int objective : this.objectives) {
+                    if (objective >= 0 && larger.metrics[objective] > smaller.metrics[objective]) {
+                        violations++;
+                        break;
+                    }
+                }
+            }
+        }
+        return violations;
+    }
+
+    void writeFrontier(PrintStream out, List<DesignPoint> frontier, String format) {
+        String[] costs = this.model.names();
+        if (format.equals("json")) {
+            out.println("[");
+            for (int i = 0; i < frontier.size(); i++) {
+                DesignPoint point = frontier.get(i);
+                StringBuilder sb = new StringBuilder("  {");
+                Object[] values = point.values();
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    sb.append(c > 0 ? ", " : "").append('"').append(COLUMNS[c]).append("\": ");
+                    sb.append(values[c] instanceof String ? "\"" + values[c] + "\"" : format(values[c]));
+                }
+                for (int c = 0; c < costs.length; c++) {
+                    sb.append(", \"").append(costs[c]).append("\": ").append(format(point.cost[c]));
+                }
+                out.print(sb.append('}'));
+                out.println(i + 1 < frontier.size() ? "," : "");
+            }
+            out.println("]");
+        } else {
+            out.println(String.join(",", COLUMNS) + "," + String.join(",", costs));
+            for (DesignPoint point : frontier) {
+                StringBuilder sb = new StringBuilder();
+                for (Object value : point.values()) {
+                    sb.append(sb.length() > 0 ? "," : "").append(format(value));
+                }
+                for (double cost : point.cost) {
+                    sb.append(',').append(format(cost));
+                }
+                out.println(sb);
+            }
+        }
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.6f", (Double) value);
+        }
+        return String.valueOf(value);
+    }
+}
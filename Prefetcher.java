@@ -0,0 +1,58 @@
+/**
+ * A hardware prefetcher attached to one CacheLevel. It watches the demand accesses that reach the
+ * level and proposes blocks to fetch before they are used. Proposals are written into a buffer
+ * owned by the prefetcher, so prefetching never allocates in the simulation loop.
+ *
+ * Prefetchers are configured with a spec, see parse:
+ *   next:N          the next N blocks after every miss
+ *   stride:N        N blocks ahead along a stride detected within each 4KB region
+ *   stream:S:D      S streams, each kept D blocks ahead of the accesses that follow it
+ */
+abstract class Prefetcher {
+    // without a timing model, a prefetched block that is demanded within this many accesses of
+    // the prefetch being issued is assumed to have arrived late
+    static final int LATE_WINDOW = 8;
+
+    String spec;
+    int blockShift;
+    // block addresses proposed by the last call to observe
+    long[] candidates;
+
+    Prefetcher(String spec, int blockSize, int maxCandidates) {
+        this.spec = spec;
+        this.blockShift = Integer.numberOfTrailingZeros(blockSize);
+        this.candidates = new long[maxCandidates];
+    }
+
+    /**
+     * Trains on one demand access to a block address. miss is true for a demand miss, and also for
+     * the first demand hit on a prefetched block so that a run of useful prefetches keeps going.
+     * Returns the number of block addresses written to candidates.
+     */
+    abstract int observe(long address, boolean miss);
+
+    static Prefetcher parse(String spec, int blockSize) {
+        String[] fields = spec.split(":");
+        try {
+            if (fields[0].equals("next") && fields.length == 2) {
+                return new NextLinePrefetcher(spec, blockSize, positive(fields[1]));
+            } else if (fields[0].equals("stride") && fields.length == 2) {
+                return new StridePrefetcher(spec, blockSize, positive(fields[1]));
+            } else if (fields[0].equals("stream") && fields.length == 3) {
+                return new StreamPrefetcher(spec, blockSize, positive(fields[1]), positive(fields[2]));
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("unrecognized prefetcher " + spec
+                + ", expected next:N, stride:N or stream:STREAMS:DEPTH");
+    }
+
+    private static int positive(String field) {
+        int value = Integer.parseInt(field);
+        if (value < 1) {
+            throw new NumberFormatException(field);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Evicts a pseudo-random way. Each set draws from its own xorshift generator, seeded from SEED and
+ * the set number, so a run is reproducible and each set's choices depend only on its own misses.
+ */
+class RandomPolicy extends ReplacementPolicy {
+    static final long SEED = 0x2545F4914F6CDD1DL;
+
+    RandomPolicy(CacheLevel level, long seed) {
+        super(level);
+        this.wordsPerSet = 1;
+        this.state = new long[level.numSets];
+        for (int set = 0; set < level.numSets; set++) {
+            // splitmix64 spreads neighbouring seeds apart, and xorshift must not start from zero
+            long z = seed + (set + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            this.state[set] = z != 0 ? z : SEED;
+        }
+    }
+
+    @Override
+    void hit(int setNumber, int slot, boolean write) {
+        touch(slot);
+    }
+
+    @Override
+    void fill(int setNumber, int slot, boolean evicted, boolean prefetch) {
+        touch(slot);
+    }
+
+    @Override
+    int victim(int setNumber) {
+        long x = this.state[setNumber];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        this.state[setNumber] = x;
+        return (int) Long.remainderUnsigned(x * 0x2545F4914F6CDD1DL, this.associativity);
+    }
+}
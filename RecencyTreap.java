@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/**
+ * An order-statistic treap over blocks keyed by the time of their last access. Removing a block
+ * counts the blocks used since its previous access, which is its LRU stack distance, in
+ * logarithmic time. Nodes are block ids into primitive arrays and a tree is named by its root
+ * node, -1 for an empty one, so one treap can hold a separate tree per set.
+ *
+ * Treaps built from another share its keys and priorities and have their own links, to keep
+ * trees of several geometries over the same blocks. Those are sized up front and never grow.
+ */
+class RecencyTreap {
+    long[] key;
+    int[] priority;
+    int[] left;
+    int[] right;
+    int[] size;
+    // the number of keys above the one the last remove took out
+    int above;
+
+    private int seed;
+    private int splitLeft;
+    private int splitRight;
+
+    public RecencyTreap(int capacity) {
+        this.key = new long[capacity];
+        this.priority = new int[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.size = new int[capacity];
+        this.seed = 0x2545F491;
+    }
+
+    public RecencyTreap(RecencyTreap shared) {
+        this.key = shared.key;
+        this.priority = shared.priority;
+        this.left = new int[shared.key.length];
+        this.right = new int[shared.key.length];
+        this.size = new int[shared.key.length];
+    }
+
+    void grow(int capacity) {
+        this.key = Arrays.copyOf(this.key, capacity);
+        this.priority = Arrays.copyOf(this.priority, capacity);
+        this.left = Arrays.copyOf(this.left, capacity);
+        this.right = Arrays.copyOf(this.right, capacity);
+        this.size = Arrays.copyOf(this.size, capacity);
+    }
+
+    /**
+     * Gives node a fresh random priority.
+     */
+    void prioritize(int node) {
+        // xorshift keeps the priorities reproducible from run to run
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 17;
+        this.seed ^= this.seed << 5;
+        this.priority[node] = this.seed;
+    }
+
+    /**
+     * Takes the node keyed k out of tree root and returns the new root. The number of keys above
+     * k is left in above.
+     */
+    int remove(int root, long k) {
+        split(root, k);
+        int before = this.splitLeft;
+        split(this.splitRight, k + 1);
+        int after = this.splitRight;
+        this.above = after < 0 ? 0 : this.size[after];
+        return merge(before, after);
+    }
+
+    /**
+     * Joins node on its own to tree root, whose keys must all be below its key, and returns the
+     * new root.
+     */
+    int append(int root, int node) {
+        this.left[node] = -1;
+        this.right[node] = -1;
+        this.size[node] = 1;
+        return merge(root, node);
+    }
+
+    /**
+     * Splits tree t into keys below pivot (splitLeft) and keys at or above pivot (splitRight).
+     */
+    private void split(int t, long pivot) {
+        if (t < 0) {
+            this.splitLeft = -1;
+            this.splitRight = -1;
+            return;
+        }
+        if (this.key[t] < pivot) {
+            split(this.right[t], pivot);
+            this.right[t] = this.splitLeft;
+            this.splitLeft = t;
+        } else {
+            split(this.left[t], pivot);
+            this.left[t] = this.splitRight;
+            this.splitRight = t;
+        }
+        update(t);
+    }
+
+    /**
+     * Joins two trees where every key in a is below every key in b.
+     */
+    private int merge(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        if (this.priority[a] > this.priority[b]) {
+            this.right[a] = merge(this.right[a], b);
+            update(a);
+            return a;
+        } else {
+            this.left[b] = merge(a, this.left[b]);
+            update(b);
+            return b;
+        }
+    }
+
+    private void update(int t) {
+        this.size[t] = 1 + (this.left[t] < 0 ? 0 : this.size[this.left[t]])
+                + (this.right[t] < 0 ? 0 : this.size[this.right[t]]);
+    }
+}
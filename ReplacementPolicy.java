@@ -0,0 +1,124 @@
+/**
+ * Chooses which way of a full set a CacheLevel evicts, from state the policy keeps per set.
+ *
+ * Every policy also keeps the level's stamps, the order the ways of a set are printed in and
+ * carried over by checkpoints: a higher stamp is closer to the front of the set. The stamp
+ * policies (LRU, FIFO, MRU, LIFO) and optimal use nothing else. The others keep their own bits in
+ * state, packed into longs, wordsPerSet for each set followed by any words the policy shares
+ * between sets.
+ *
+ * A level creates its policy once and never changes it, so every call site on the simulation
+ * path sees a single implementation for the whole run, which the JIT inlines.
+ */
+abstract class ReplacementPolicy {
+    static final int LRU = 1;
+    static final int FIFO = 2;
+    static final int OPTIMAL = 3;
+    static final int MRU = 4;
+    static final int LIFO = 5;
+    static final int PLRU = 6;
+    static final int SRRIP = 7;
+    static final int BRRIP = 8;
+    static final int DRRIP = 9;
+    static final int RANDOM = 10;
+    // indexed by code, as given on the command line
+    static final String[] NAMES = { null, "LRU", "FIFO", "optimal", "MRU", "LIFO", "PLRU", "SRRIP", "BRRIP",
+            "DRRIP", "random" };
+
+    final CacheLevel level;
+    final int associativity;
+    int wordsPerSet;
+    // per-set replacement bits, null for the policies that only use the stamps
+    long[] state;
+
+    ReplacementPolicy(CacheLevel level) {
+        this.level = level;
+        this.associativity = level.associativity;
+    }
+
+    static ReplacementPolicy create(int code, CacheLevel level) {
+        switch (code) {
+            case LRU:
+                return new StampPolicy(level, true, false);
+            case FIFO:
+                return new StampPolicy(level, false, false);
+            case OPTIMAL:
+                return new OptimalPolicy(level);
+            case MRU:
+                return new StampPolicy(level, true, true);
+            case LIFO:
+                return new StampPolicy(level, false, true);
+            case PLRU:
+                return new TreePlruPolicy(level);
+            case SRRIP:
+            case BRRIP:
+            case DRRIP:
+                return new RripPolicy(level, code);
+            case RANDOM:
+                return new RandomPolicy(level, RandomPolicy.SEED);
+            default:
+                throw new IllegalArgumentException("unknown replacement policy " + code);
+        }
+    }
+
+    /**
+     * Returns the code of a policy name, or -1 if there is no such policy.
+     */
+    static int parse(String name) {
+        for (int code = 1; code < NAMES.length; code++) {
+            if (NAMES[code].equals(name)) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A demand read or write hit the block in slot.
+     */
+    abstract void hit(int setNumber, int slot, boolean write);
+
+    /**
+     * A block was placed in slot, either into a free way or, when evicted is true, in place of the
+     * block victim() chose.
+     */
+    abstract void fill(int setNumber, int slot, boolean evicted, boolean prefetch);
+
+    /**
+     * Returns the way to evict from a full set.
+     */
+    abstract int victim(int setNumber);
+
+    /**
+     * A demand access missed in the set, before its block is filled.
+     */
+    void miss(int setNumber) {
+    }
+
+    /**
+     * The block in slot from moved to slot to of the same set, when a removal compacts the set.
+     */
+    void move(int setNumber, int from, int to) {
+        this.level.stamps[to] = this.level.stamps[from];
+    }
+
+    /**
+     * True when a set's state depends only on the accesses to that set, so that sets can be
+     * simulated apart and their state copied between levels of the same geometry.
+     */
+    boolean setIndependent() {
+        return true;
+    }
+
+    void copySet(ReplacementPolicy from, int setNumber) {
+        if (this.state != null) {
+            int base = setNumber * this.wordsPerSet;
+            System.arraycopy(from.state, base, this.state, base, this.wordsPerSet);
+        }
+    }
+
+    // moves the block in slot to the front of the set
+    final void touch(int slot) {
+        this.level.stamps[slot] = ++this.level.clock;
+    }
+}
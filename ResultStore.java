@@ -0,0 +1,324 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps simulation reports on disk so that a configuration already simulated on the same trace
+ * by the same simulator is not simulated again. The key is the SHA-256 of a description of the
+ * configuration, the SHA-256 of the trace contents and a stamp of the simulator's class files, so
+ * editing a trace or rebuilding a changed simulator only ever causes misses.
+ *
+ * A store is a directory with two append-only files and a lock file that serializes the processes
+ * of a sweep sharing the store:
+ *   results.dat  magic "CRES", i32 version, i64 id, then the UTF-8 reports one after another
+ *   results.idx  magic "CRIX", i32 version, i64 id, then 48 byte entries: the 32 byte key, i64
+ *                offset and i32 length of the report in results.dat, and i32 CRC32 of the report
+ * A lookup reads the whole index, where a later entry for a key replaces an earlier one, and a hit
+ * appends the entry again so the index also records the order of use. Once results.dat outgrows
+ * the size bound, or the index holds mostly repeated entries, both files are rewritten with the
+ * most recently used reports that fit in three quarters of the bound. The rewritten files get a
+ * new id, and an index whose id differs from its data file, after a crash during the rewrite, is
+ * treated as empty. Entries that point past the end of the data file or fail their CRC are misses.
+ */
+class ResultStore {
+    static final byte[] DATA_MAGIC = { 'C', 'R', 'E', 'S' };
+    static final byte[] INDEX_MAGIC = { 'C', 'R', 'I', 'X' };
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int KEY_SIZE = 32;
+    static final int ENTRY_SIZE = KEY_SIZE + 16;
+    static final long DEFAULT_MAX_BYTES = 512L << 20;
+
+    static class Entry {
+        long offset;
+        int length;
+        int crc;
+    }
+
+    final Path directory;
+    final long maxBytes;
+    final Path data;
+    final Path index;
+    final Path lock;
+
+    ResultStore(String directory, long maxBytes) throws IOException {
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+        this.data = this.directory.resolve("results.dat");
+        this.index = this.directory.resolve("results.idx");
+        this.lock = this.directory.resolve("lock");
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * The stored report for key, or null.
+     */
+    String get(String key) throws IOException {
+        byte[] digest = sha256(key.getBytes(StandardCharsets.UTF_8));
+        try (FileChannel lockChannel = openLock()) {
+            // closing the channel releases the lock
+            lockChannel.lock();
+            long id = readId(this.data, DATA_MAGIC);
+            Map<String, Entry> entries = readIndex(id);
+            Entry entry = entries.get(hex(digest));
+            if (entry == null) {
+                return null;
+            }
+            byte[] report = new byte[entry.length];
+            try (RandomAccessFile in = new RandomAccessFile(this.data.toFile(), "r")) {
+                if (entry.offset + entry.length > in.length()) {
+                    return null;
+                }
+                in.seek(entry.offset);
+                in.readFully(report);
+            }
+            if (crc(report) != entry.crc) {
+                return null;
+            }
+            appendEntry(digest, entry);
+            if (Files.size(this.index) > HEADER_SIZE + 4L * ENTRY_SIZE * Math.max(entries.size(), 256)) {
+                compact(entries);
+            }
+            return new String(report, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Stores report under key, evicting the least recently used reports if the store outgrows
+     * its bound. Reports larger than the part of the bound kept by an eviction are not stored.
+     */
+    void put(String key, String report) throws IOException {
+        byte[] digest = sha256(key.getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = report.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > retainedBytes()) {
+            return;
+        }
+        try (FileChannel lockChannel = openLock()) {
+            lockChannel.lock();
+            long id = readId(this.data, DATA_MAGIC);
+            if (id == 0 || id != readId(this.index, INDEX_MAGIC)) {
+                // no store yet, or one whose rewrite was cut short
+                id = System.nanoTime() | 1;
+                writeHeader(this.data, DATA_MAGIC, id);
+                writeHeader(this.index, INDEX_MAGIC, id);
+            }
+            Entry entry = new Entry();
+            entry.length = bytes.length;
+            entry.crc = crc(bytes);
+            try (FileChannel out = FileChannel.open(this.data, StandardOpenOption.WRITE)) {
+                entry.offset = out.size();
+                out.write(ByteBuffer.wrap(bytes), entry.offset);
+            }
+            // the report is written before its entry, so a crash in between only leaves unused bytes
+            appendEntry(digest, entry);
+            if (entry.offset + entry.length > this.maxBytes) {
+                compact(readIndex(id));
+            }
+        }
+    }
+
+    long retainedBytes() {
+        return (this.maxBytes - HEADER_SIZE) / 4 * 3;
+    }
+
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(this.lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * The id in the header of file, or 0 if it is missing or not a store file of this version.
+     */
+    private static long readId(Path file, byte[] magic) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(HEADER_SIZE);
+            if (header.length < HEADER_SIZE || !Arrays.equals(Arrays.copyOf(header, magic.length), magic)) {
+                return 0;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(header, magic.length, HEADER_SIZE - magic.length);
+            return buffer.getInt() == VERSION ? buffer.getLong() : 0;
+        }
+    }
+
+    private static void writeHeader(Path file, byte[] magic, long id) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(magic).putInt(VERSION).putLong(id);
+        Files.write(file, header.array());
+    }
+
+    /**
+     * The index entries of the data file with the given id, from the least to the most recently
+     * used. An index of another id is empty.
+     */
+    private Map<String, Entry> readIndex(long id) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        if (id == 0 || readId(this.index, INDEX_MAGIC) != id) {
+            return entries;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(this.index));
+        buffer.position(HEADER_SIZE);
+        byte[] digest = new byte[KEY_SIZE];
+        // a partly written last entry is ignored
+        while (buffer.remaining() >= ENTRY_SIZE) {
+            buffer.get(digest);
+            Entry entry = new Entry();
+            entry.offset = buffer.getLong();
+            entry.length = buffer.getInt();
+            entry.crc = buffer.getInt();
+            String key = hex(digest);
+            // moves the key to the most recently used end
+            entries.remove(key);
+            entries.put(key, entry);
+        }
+        return entries;
+    }
+
+    private void appendEntry(byte[] digest, Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        buffer.put(digest).putLong(entry.offset).putInt(entry.length).putInt(entry.crc);
+        buffer.flip();
+        try (FileChannel out = FileChannel.open(this.index, StandardOpenOption.WRITE)) {
+            long size = out.size();
+            // drop a partly written entry so the new one stays aligned
+            long end = size - (size - HEADER_SIZE) % ENTRY_SIZE;
+            out.truncate(end);
+            out.write(buffer, end);
+        }
+    }
+
+    /**
+     * Rewrites both files with the most recently used reports that fit in retainedBytes().
+     */
+    private void compact(Map<String, Entry> entries) throws IOException {
+        List<String> keys = new ArrayList<String>(entries.keySet());
+        long kept = 0;
+        int first = keys.size();
+        while (first > 0 && kept + entries.get(keys.get(first - 1)).length <= retainedBytes()) {
+            first--;
+            kept += entries.get(keys.get(first)).length;
+        }
+
+        long id = System.nanoTime() | 1;
+        Path dataTemp = this.directory.resolve("results.dat.tmp");
+        Path indexTemp = this.directory.resolve("results.idx.tmp");
+        writeHeader(dataTemp, DATA_MAGIC, id);
+        writeHeader(indexTemp, INDEX_MAGIC, id);
+        try (RandomAccessFile in = new RandomAccessFile(this.data.toFile(), "r");
+                FileChannel dataOut = FileChannel.open(dataTemp, StandardOpenOption.APPEND);
+                FileChannel indexOut = FileChannel.open(indexTemp, StandardOpenOption.APPEND)) {
+            ByteBuffer entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+            for (Iterator<String> it = keys.listIterator(first); it.hasNext();) {
+                String key = it.next();
+                Entry entry = entries.get(key);
+                if (entry.offset + entry.length > in.length()) {
+                    continue;
+                }
+                byte[] report = new byte[entry.length];
+                in.seek(entry.offset);
+                in.readFully(report);
+                long offset = dataOut.size();
+                dataOut.write(ByteBuffer.wrap(report));
+                entryBuffer.clear();
+                entryBuffer.put(unhex(key)).putLong(offset).putInt(entry.length).putInt(entry.crc);
+                entryBuffer.flip();
+                indexOut.write(entryBuffer);
+            }
+        }
+        Files.move(dataTemp, this.data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTemp, this.index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The SHA-256 of a trace file's contents, or of the spec of a generated trace, in hex.
+     */
+    static String traceHash(String traceFile) throws IOException {
+        if (WorkloadGenerator.isGenerator(traceFile)) {
+            return hex(sha256(traceFile.getBytes(StandardCharsets.UTF_8)));
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(Paths.get(traceFile))) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * A stamp of the running simulator: the SHA-256 of the jar it was loaded from, or of the class
+     * files in its class directory.
+     */
+    static String simulatorVersion() throws IOException {
+        MessageDigest digest = newDigest();
+        File source;
+        try {
+            source = new File(ResultStore.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (Exception e) {
+            throw new IOException("cannot locate the simulator classes", e);
+        }
+        File[] files = source.isDirectory() ? source.listFiles((dir, name) -> name.endsWith(".class"))
+                : new File[] { source };
+        Arrays.sort(files);
+        for (File file : files) {
+            digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(file.toPath()));
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing", e);
+        }
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        return newDigest().digest(bytes);
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    private static byte[] unhex(String text) {
+        byte[] bytes = new byte[text.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(text.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
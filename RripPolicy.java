@@ -0,0 +1,119 @@
+/**
+ * Re-reference interval prediction (Jaleel et al., ISCA 2010) with 2-bit re-reference prediction
+ * values (RRPVs), packed 32 ways to a long. A hit predicts a near re-reference (RRPV 0), and the
+ * victim is the first way predicted distant (RRPV 3), after ageing the whole set until one is.
+ *
+ * SRRIP inserts new blocks with a long prediction (RRPV 2). BRRIP inserts them distant, except
+ * every 32nd insertion, which resists thrashing. DRRIP duels the two: sets 0 and 1 of every 32 lead
+ * with SRRIP and BRRIP, their misses move a 10-bit saturating counter, and the other sets follow
+ * whichever leader misses less. Prefetched blocks are always inserted distant. BRRIP and DRRIP
+ * share their counters between sets, which are kept after the sets' words in state.
+ */
+class RripPolicy extends ReplacementPolicy {
+    static final int DISTANT = 3;
+    static final int LONG = 2;
+    static final int BIMODAL_PERIOD = 32;
+    static final int DUEL_PERIOD = 32;
+    static final long PSEL_MAX = 1023;
+
+    final int mode;
+    final int psel;
+    final int throttle;
+
+    RripPolicy(CacheLevel level, int mode) {
+        super(level);
+        this.mode = mode;
+        this.wordsPerSet = (this.associativity + 31) / 32;
+        this.psel = level.numSets * this.wordsPerSet;
+        this.throttle = this.psel + 1;
+        this.state = new long[this.throttle + 1];
+        this.state[this.psel] = PSEL_MAX / 2;
+    }
+
+    private int get(int setNumber, int way) {
+        return (int) (this.state[setNumber * this.wordsPerSet + (way >>> 5)] >>> ((way & 31) * 2)) & 3;
+    }
+
+    private void set(int setNumber, int way, int rrpv) {
+        int word = setNumber * this.wordsPerSet + (way >>> 5);
+        int shift = (way & 31) * 2;
+        this.state[word] = (this.state[word] & ~(3L << shift)) | ((long) rrpv << shift);
+    }
+
+    @Override
+    void hit(int setNumber, int slot, boolean write) {
+        set(setNumber, slot - setNumber * this.associativity, 0);
+        touch(slot);
+    }
+
+    @Override
+    void fill(int setNumber, int slot, boolean evicted, boolean prefetch) {
+        set(setNumber, slot - setNumber * this.associativity, prefetch ? DISTANT : insertion(setNumber));
+        touch(slot);
+    }
+
+    private int insertion(int setNumber) {
+        boolean bimodal;
+        if (this.mode == SRRIP) {
+            bimodal = false;
+        } else if (this.mode == BRRIP) {
+            bimodal = true;
+        } else {
+            int leader = setNumber % DUEL_PERIOD;
+            bimodal = leader == 1 || (leader != 0 && this.state[this.psel] > PSEL_MAX / 2);
+        }
+        if (!bimodal) {
+            return LONG;
+        }
+        return this.state[this.throttle]++ % BIMODAL_PERIOD == 0 ? LONG : DISTANT;
+    }
+
+    @Override
+    void miss(int setNumber) {
+        if (this.mode == DRRIP) {
+            // misses in the SRRIP leaders push the followers towards BRRIP and the other way round
+            int leader = setNumber % DUEL_PERIOD;
+            if (leader == 0 && this.state[this.psel] < PSEL_MAX) {
+                this.state[this.psel]++;
+            } else if (leader == 1 && this.state[this.psel] > 0) {
+                this.state[this.psel]--;
+            }
+        }
+    }
+
+    @Override
+    int victim(int setNumber) {
+        int oldest = 0;
+        int victim = 0;
+        for (int way = 0; way < this.associativity; way++) {
+            int rrpv = get(setNumber, way);
+            if (rrpv > oldest) {
+                oldest = rrpv;
+                victim = way;
+                if (rrpv == DISTANT) {
+                    break;
+                }
+            }
+        }
+        // age the set until the victim is predicted distant
+        int age = DISTANT - oldest;
+        if (age > 0) {
+            for (int way = 0; way < this.associativity; way++) {
+                set(setNumber, way, get(setNumber, way) + age);
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    void move(int setNumber, int from, int to) {
+        super.move(setNumber, from, to);
+        int base = setNumber * this.associativity;
+        set(setNumber, to - base, get(setNumber, from - base));
+    }
+
+    @Override
+    boolean setIndependent() {
+        return this.mode == SRRIP;
+    }
+}
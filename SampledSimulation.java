@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Estimates the miss rates and memory traffic of a hierarchy from samples of a trace, in the
+ * style of SMARTS, instead of measuring every access.
+ *
+ * java SampledSimulation <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <L2_SIZE> <L2_ASSOC> <REPLACEMENT_POLICY>
+ *         <INCLUSION_PROPERTY> <trace_file>... [-unit N] [-warmup N|all] [-interval N] [-validate]
+ *
+ * The trace is cut into intervals of interval accesses, and the last unit accesses of each
+ * interval are a measurement unit. The warmup accesses before a unit only update the cache state,
+ * without being counted, and the rest of the interval is skipped. With -warmup all every access
+ * updates the state, which is functional warming as in SMARTS: it removes the error stale state
+ * causes but simulates the whole trace, giving up the speedup. Each rate is the ratio of its
+ * totals over the units, with a 95% confidence interval from the variation between units.
+ * -validate also simulates every access and reports whether the full result falls inside the
+ * interval.
+ *
+ * The defaults simulate 2% of a trace, which suits traces of many millions of accesses. A trace
+ * shorter than an interval has no units, and short traces need a shorter -interval.
+ */
+class SampledSimulation {
+    // 2% of the trace is simulated, a thousand units per billion accesses
+    static final int DEFAULT_UNIT = 5000;
+    static final int DEFAULT_WARMUP = 15000;
+    static final int DEFAULT_INTERVAL = 1000000;
+    // two sided 95% normal quantile
+    static final double Z = 1.96;
+    // -warmup all
+    static final long ALL = -1;
+
+    /**
+     * A ratio of two totals over the sampled units, for example misses over accesses, with the
+     * variance of the ratio estimator.
+     */
+    static class RatioEstimate {
+        long units;
+        double sumY;
+        double sumX;
+        double sumYY;
+        double sumXY;
+        double sumXX;
+
+        void add(long y, long x) {
+            this.units++;
+            this.sumY += y;
+            this.sumX += x;
+            this.sumYY += (double) y * y;
+            this.sumXY += (double) y * x;
+            this.sumXX += (double) x * x;
+        }
+
+        double ratio() {
+            return this.sumX == 0 ? 0 : this.sumY / this.sumX;
+        }
+
+        /**
+         * Half width of the confidence interval around ratio(), from the spread of the units'
+         * residuals y - ratio() * x.
+         */
+        double halfWidth() {
+            if (this.units < 2 || this.sumX == 0) {
+                return Double.NaN;
+            }
+            double r = ratio();
+            double residuals = Math.max(0, this.sumYY - 2 * r * this.sumXY + r * r * this.sumXX);
+            double meanX = this.sumX / this.units;
+            return Z * Math.sqrt(residuals / (this.units * (this.units - 1))) / meanX;
+        }
+    }
+
+    int blockSize;
+    int l1Size;
+    int l1Assoc;
+    int l2Size;
+    int l2Assoc;
+    int replacement;
+    int inclusion;
+    long unit;
+    long warmup;
+    long interval;
+
+    // results of the last run
+    long accesses;
+    long simulated;
+    RatioEstimate l1MissRate;
+    RatioEstimate l2MissRate;
+    RatioEstimate trafficPerAccess;
+
+    public SampledSimulation(int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc, int replacement,
+            int inclusion, long unit, long warmup, long interval) {
+        if (replacement == ReplacementPolicy.OPTIMAL) {
+            // optimal replacement looks ahead through accesses the sample skips
+            throw new IllegalArgumentException("optimal replacement cannot be sampled");
+        }
+        if (unit < 1 || interval < unit || (warmup != ALL && (warmup < 0 || unit + warmup > interval))) {
+            throw new IllegalArgumentException("sampling needs 1 <= unit and unit + warmup <= interval");
+        }
+        this.blockSize = blockSize;
+        this.l1Size = l1Size;
+        this.l1Assoc = l1Assoc;
+        this.l2Size = l2Size;
+        this.l2Assoc = l2Assoc;
+        this.replacement = replacement;
+        this.inclusion = inclusion;
+        this.unit = unit;
+        this.warmup = warmup;
+        this.interval = interval;
+    }
+
+    void run(String traceFile) throws IOException {
+        OverallCache cache = sim_cache.createCache(this.blockSize, this.l1Size, this.l1Assoc, this.l2Size,
+                this.l2Assoc, this.replacement, this.inclusion, null);
+        CacheLevel L1 = cache.L1;
+        CacheLevel L2 = cache.L2;
+        this.l1MissRate = new RatioEstimate();
+        this.l2MissRate = new RatioEstimate();
+        this.trafficPerAccess = new RatioEstimate();
+        this.accesses = 0;
+        this.simulated = 0;
+
+        long measureFrom = this.interval - this.unit;
+        long warmFrom = this.warmup == ALL ? 0 : measureFrom - this.warmup;
+        boolean measuring = false;
+        long l1Accesses = 0;
+        long l1Misses = 0;
+        long l2Reads = 0;
+        long l2Misses = 0;
+        long traffic = 0;
+
+        try (TraceStream in = TraceStream.open(traceFile)) {
+            if ((1 << in.blockShift) > this.blockSize) {
+                throw new IllegalArgumentException(traceFile + " was reduced to " + (1 << in.blockShift)
+                        + " byte blocks and cannot be simulated with BLOCKSIZE " + this.blockSize);
+            }
+            while (in.next()) {
+                long offset = this.accesses % this.interval;
+                if (offset == measureFrom) {
+                    measuring = true;
+                    l1Accesses = L1.reads + L1.writes;
+                    l1Misses = L1.readMisses + L1.writeMisses;
+                    l2Reads = L2 != null ? L2.reads : 0;
+                    l2Misses = L2 != null ? L2.readMisses + L2.writeMisses : 0;
+                    traffic = cache.memoryTraffic();
+                }
+                if (offset >= warmFrom) {
+                    cache.access(in.op, in.address);
+                    this.simulated++;
+                }
+                this.accesses++;
+                if (offset == this.interval - 1) {
+                    endUnit(cache, l1Accesses, l1Misses, l2Reads, l2Misses, traffic);
+                    measuring = false;
+                }
+            }
+        }
+        // a unit the end of the trace cut short still counts, with its smaller weight
+        if (measuring) {
+            endUnit(cache, l1Accesses, l1Misses, l2Reads, l2Misses, traffic);
+        }
+    }
+
+    private void endUnit(OverallCache cache, long l1Accesses, long l1Misses, long l2Reads, long l2Misses,
+            long traffic) {
+        CacheLevel L1 = cache.L1;
+        CacheLevel L2 = cache.L2;
+        long unitAccesses = L1.reads + L1.writes - l1Accesses;
+        this.l1MissRate.add(L1.readMisses + L1.writeMisses - l1Misses, unitAccesses);
+        if (L2 != null) {
+            this.l2MissRate.add(L2.readMisses + L2.writeMisses - l2Misses, L2.reads - l2Reads);
+        }
+        this.trafficPerAccess.add(cache.memoryTraffic() - traffic, unitAccesses);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 8) {
+            System.err.println("usage: java SampledSimulation <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <L2_SIZE> <L2_ASSOC>"
+                    + " <REPLACEMENT_POLICY> <INCLUSION_PROPERTY> <trace_file>... [-unit N] [-warmup N|all]"
+                    + " [-interval N] [-validate]");
+            System.exit(1);
+        }
+        int blockSize = Integer.parseInt(args[0]);
+        int l1Size = Integer.parseInt(args[1]);
+        int l1Assoc = Integer.parseInt(args[2]);
+        int l2Size = Integer.parseInt(args[3]);
+        int l2Assoc = Integer.parseInt(args[4]);
+        int replacement = sim_cache.parseReplacementPolicy(args[5]);
+        int inclusion = sim_cache.parseInclusionProperty(args[6]);
+
+        List<String> traceFiles = new ArrayList<String>();
+        long unit = DEFAULT_UNIT;
+        long warmup = DEFAULT_WARMUP;
+        long interval = DEFAULT_INTERVAL;
+        boolean validate = false;
+        for (int i = 7; i < args.length; i++) {
+            if (args[i].equals("-unit")) {
+                unit = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-warmup")) {
+                i++;
+                warmup = args[i].equals("all") ? ALL : Long.parseLong(args[i]);
+            } else if (args[i].equals("-interval")) {
+                interval = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-validate")) {
+                validate = true;
+            } else {
+                traceFiles.add(args[i]);
+            }
+        }
+
+        SampledSimulation sampling = new SampledSimulation(blockSize, l1Size, l1Assoc, l2Size, l2Assoc, replacement,
+                inclusion, unit, warmup, interval);
+        StringBuilder out = new StringBuilder();
+        out.append("===== Sampling configuration =====\n");
+        out.append("UNIT:\t\t\t").append(unit).append('\n');
+        out.append("WARMUP:\t\t\t").append(warmup == ALL ? "all" : Long.toString(warmup)).append('\n');
+        out.append("INTERVAL:\t\t").append(interval).append('\n');
+        for (String traceFile : traceFiles) {
+            sampling.run(traceFile);
+            if (sampling.l1MissRate.units == 0) {
+                System.err.println("warning: " + traceFile + " has fewer than " + (interval - unit + 1)
+                        + " accesses and no measurement units, use a shorter -interval");
+            }
+            sampling.report(out, traceFile);
+
+            if (validate) {
+                OverallCache full = sim_cache.createCache(blockSize, l1Size, l1Assoc, l2Size, l2Assoc, replacement,
+                        inclusion, null);
+                try (TraceStream in = TraceStream.open(traceFile)) {
+                    while (in.next()) {
+                        full.access(in.op, in.address);
+                    }
+                }
+                sampling.validate(out, full);
+            }
+        }
+        System.out.print(out);
+    }
+
+    void report(StringBuilder out, String traceFile) {
+        out.append("===== Sampled results: ").append(traceFile).append(" =====\n");
+        out.append("accesses:\t\t").append(this.accesses).append('\n');
+        out.append("simulated accesses:\t").append(this.simulated).append('\n');
+        out.append("measurement units:\t").append(this.l1MissRate.units).append('\n');
+        out.append(String.format(Locale.ROOT, "L1 miss rate:\t\t%.6f +/- %.6f\n", this.l1MissRate.ratio(),
+                this.l1MissRate.halfWidth()));
+        if (this.l2Size > 0) {
+            out.append(String.format(Locale.ROOT, "L2 miss rate:\t\t%.6f +/- %.6f\n", this.l2MissRate.ratio(),
+                    this.l2MissRate.halfWidth()));
+        }
+        out.append(String.format(Locale.ROOT, "memory traffic:\t\t%.0f +/- %.0f\n",
+                this.trafficPerAccess.ratio() * this.accesses, this.trafficPerAccess.halfWidth() * this.accesses));
+    }
+
+    void validate(StringBuilder out, OverallCache full) {
+        CacheLevel L1 = full.L1;
+        CacheLevel L2 = full.L2;
+        out.append("----- Full simulation -----\n");
+        double l1 = (double) (L1.readMisses + L1.writeMisses) / (L1.reads + L1.writes);
+        appendCheck(out, "L1 miss rate:\t\t", l1, this.l1MissRate.ratio(), this.l1MissRate.halfWidth());
+        if (L2 != null) {
+            double l2 = (double) (L2.readMisses + L2.writeMisses) / L2.reads;
+            appendCheck(out, "L2 miss rate:\t\t", l2, this.l2MissRate.ratio(), this.l2MissRate.halfWidth());
+        }
+        out.append(String.format(Locale.ROOT, "memory traffic:\t\t%d (%s)\n", full.memoryTraffic(),
+                inside(full.memoryTraffic(), this.trafficPerAccess.ratio() * this.accesses,
+                        this.trafficPerAccess.halfWidth() * this.accesses)));
+    }
+
+    private static void appendCheck(StringBuilder out, String label, double actual, double estimate,
+            double halfWidth) {
+        out.append(String.format(Locale.ROOT, "%s%.6f (%s)\n", label, actual, inside(actual, estimate, halfWidth)));
+    }
+
+    private static String inside(double actual, double estimate, double halfWidth) {
+        return Math.abs(actual - estimate) <= halfWidth ? "inside the interval" : "outside the interval";
+    }
+}
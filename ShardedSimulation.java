@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulates one hierarchy on several threads by splitting the trace between shards of sets.
+ *
+ * Both levels share the block size and have a power-of-two number of sets, so the low bits of a
+ * block address pick its set in either level. With at most as many shards as the smaller level
+ * has sets, the shard of an access is its set number in that level modulo the shard count, and
+ * every block an access can move between the levels, its L1 victim, its L2 victim and the L1 copy
+ * an inclusive L2 invalidates, belongs to the same shard. Each shard therefore replays its own
+ * accesses in trace order through a private hierarchy, and every set ends up in the state, and
+ * with the counts, of the sequential run. The shards' sets and counters are then merged into one
+ * hierarchy.
+ *
+ * Every access runs at its trace position, so optimal replacement finds each block's next
+ * reference in the next-use table of the whole trace, which only ever leads to accesses of the
+ * same shard. The victim cache, write-back buffer and prefetchers are shared between sets, and
+ * the statistics and timing model depend on the order of all accesses, so none of them can be
+ * sharded, and neither can BRRIP and DRRIP, whose insertion counters are shared by all sets.
+ */
+class ShardedSimulation {
+    int blockSize;
+    int l1Size;
+    int l1Assoc;
+    int l2Size;
+    int l2Assoc;
+    int replacement;
+    int inclusion;
+    NextUseIndex nextUse;
+
+    public ShardedSimulation(int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc, int replacement,
+            int inclusion, NextUseIndex nextUse) {
+        this.blockSize = blockSize;
+        this.l1Size = l1Size;
+        this.l1Assoc = l1Assoc;
+        this.l2Size = l2Size;
+        this.l2Assoc = l2Assoc;
+        this.replacement = replacement;
+        this.inclusion = inclusion;
+        this.nextUse = nextUse;
+    }
+
+    OverallCache createCache() {
+        return sim_cache.createCache(this.blockSize, this.l1Size, this.l1Assoc, this.l2Size, this.l2Assoc,
+                this.replacement, this.inclusion, this.nextUse);
+    }
+
+    /**
+     * Simulates the whole trace with up to threads shards and returns the merged hierarchy, whose
+     * contents and counters match a sequential simulate(trace).
+     */
+    OverallCache simulate(Trace trace, int threads) throws InterruptedException, ExecutionException {
+        OverallCache merged = createCache();
+        if (!merged.L1.policy.setIndependent()) {
+            throw new IllegalArgumentException(ReplacementPolicy.NAMES[this.replacement]
+                    + " replacement shares state between sets and cannot be sharded");
+        }
+        int minSets = merged.L2 != null ? Math.min(merged.L1.numSets, merged.L2.numSets) : merged.L1.numSets;
+        // a power of two no larger than the smaller set count, so shards split sets evenly
+        int shards = Math.min(minSets, Integer.highestOneBit(Math.max(threads, 1)));
+        if (shards == 1) {
+            merged.simulate(trace);
+            return merged;
+        }
+
+        int[][] positions = partition(trace, merged.L1.decoder, shards);
+
+        ExecutorService pool = Executors.newFixedThreadPool(shards);
+        try {
+            List<Future<OverallCache>> futures = new ArrayList<Future<OverallCache>>();
+            for (int shard = 0; shard < shards; shard++) {
+                int[] shardPositions = positions[shard];
+                futures.add(pool.submit(() -> simulateShard(trace, shardPositions)));
+            }
+            for (int shard = 0; shard < shards; shard++) {
+                OverallCache part = futures.get(shard).get();
+                mergeLevel(merged.L1, part.L1, shard, shards);
+                if (merged.L2 != null) {
+                    mergeLevel(merged.L2, part.L2, shard, shards);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        merged.L1.counter = trace.size;
+        if (merged.L2 != null) {
+            merged.L2.counter = trace.size;
+        }
+        return merged;
+    }
+
+    /**
+     * The trace positions of each shard's accesses, in trace order.
+     */
+    static int[][] partition(Trace trace, AddressDecoder decoder, int shards) {
+        int mask = shards - 1;
+        int[] counts = new int[shards];
+        for (int i = 0; i < trace.size; i++) {
+            counts[decoder.set(decoder.blockAlign(trace.addresses[i])) & mask]++;
+        }
+        int[][] positions = new int[shards][];
+        for (int shard = 0; shard < shards; shard++) {
+            positions[shard] = new int[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (int i = 0; i < trace.size; i++) {
+            int shard = decoder.set(decoder.blockAlign(trace.addresses[i])) & mask;
+            positions[shard][counts[shard]++] = i;
+        }
+        return positions;
+    }
+
+    private OverallCache simulateShard(Trace trace, int[] positions) {
+        OverallCache cache = createCache();
+        for (int position : positions) {
+            // the levels count trace positions, which is what optimal replacement looks ahead from
+            cache.L1.counter = position;
+            if (cache.L2 != null) {
+                cache.L2.counter = position;
+            }
+            cache.access((char) trace.ops[position], trace.addresses[position]);
+        }
+        return cache;
+    }
+
+    /**
+     * Copies the sets of one shard and adds its counters into the merged level.
+     */
+    private static void mergeLevel(CacheLevel merged, CacheLevel part, int shard, int shards) {
+        int assoc = merged.associativity;
+        for (int set = shard; set < merged.numSets; set += shards) {
+            int base = set * assoc;
+            System.arraycopy(part.tags, base, merged.tags, base, assoc);
+            System.arraycopy(part.addresses, base, merged.addresses, base, assoc);
+            System.arraycopy(part.valid, base, merged.valid, base, assoc);
+            System.arraycopy(part.dirty, base, merged.dirty, base, assoc);
+            System.arraycopy(part.positions, base, merged.positions, base, assoc);
+            System.arraycopy(part.stamps, base, merged.stamps, base, assoc);
+            merged.setFill[set] = part.setFill[set];
+            merged.policy.copySet(part.policy, set);
+        }
+        // stamps are only compared within a set, so any clock above all of them carries on
+        merged.clock = Math.max(merged.clock, part.clock);
+        merged.reads += part.reads;
+        merged.readMisses += part.readMisses;
+        merged.writes += part.writes;
+        merged.writeMisses += part.writeMisses;
+        merged.writebacks += part.writebacks;
+        merged.invalidations += part.invalidations;
+        merged.invalidationWritebacks += part.invalidationWritebacks;
+    }
+}
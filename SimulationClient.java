@@ -0,0 +1,106 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A session with a SimulationServer. Each method sends one command and waits for its reply, and
+ * an ERROR reply is thrown as an IllegalArgumentException. A client is not thread safe, but
+ * several clients can talk to one server at the same time.
+ */
+class SimulationClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // reused for every batch, in the frame layout of an ACCESS command
+    private ByteBuffer frame = ByteBuffer.allocate(0);
+
+    SimulationClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), 1 << 12));
+        this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream(), 1 << 16));
+    }
+
+    /**
+     * Creates a hierarchy as sim_cache would for these arguments, returns its id.
+     */
+    int create(int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc, String replacementPolicy,
+            String inclusionProperty) throws IOException {
+        this.out.write(SimulationServer.CREATE);
+        this.out.writeInt(blockSize);
+        this.out.writeInt(l1Size);
+        this.out.writeInt(l1Assoc);
+        this.out.writeInt(l2Size);
+        this.out.writeInt(l2Assoc);
+        this.out.write(sim_cache.parseReplacementPolicy(replacementPolicy));
+        this.out.write(sim_cache.parseInclusionProperty(inclusionProperty));
+        reply();
+        return this.in.readInt();
+    }
+
+    /**
+     * Simulates accesses from to to of ops ('r', 'R', 'w' or 'W') and addresses, returns how many
+     * accesses the hierarchy has simulated in all.
+     */
+    long access(int id, byte[] ops, long[] addresses, int from, int to) throws IOException {
+        int n = to - from;
+        int length = 9 + 9 * n;
+        if (this.frame.capacity() < length) {
+            this.frame = ByteBuffer.allocate(Math.max(length, 2 * this.frame.capacity()));
+        }
+        ByteBuffer frame = this.frame;
+        frame.clear();
+        frame.put(SimulationServer.ACCESS).putInt(id).putInt(n);
+        frame.put(ops, from, n);
+        for (int i = from; i < to; i++) {
+            frame.putLong(addresses[i]);
+        }
+        this.out.write(frame.array(), 0, frame.position());
+        reply();
+        return this.in.readLong();
+    }
+
+    /**
+     * The counters of a hierarchy, named by SimulationServer.COUNTER_NAMES.
+     */
+    long[] counters(int id) throws IOException {
+        this.out.write(SimulationServer.COUNTERS);
+        this.out.writeInt(id);
+        reply();
+        long[] counters = new long[this.in.readInt()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = this.in.readLong();
+        }
+        return counters;
+    }
+
+    void reset(int id) throws IOException {
+        this.out.write(SimulationServer.RESET);
+        this.out.writeInt(id);
+        reply();
+    }
+
+    void destroy(int id) throws IOException {
+        this.out.write(SimulationServer.DESTROY);
+        this.out.writeInt(id);
+        reply();
+    }
+
+    private void reply() throws IOException {
+        this.out.flush();
+        if (this.in.readUnsignedByte() != SimulationServer.OK) {
+            throw new IllegalArgumentException(this.in.readUTF());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
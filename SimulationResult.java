@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The configuration and final counters of one simulation, as a row for machine readable output.
+ * The derived values match what sim_cache.finalPrint reports.
+ */
+class SimulationResult {
+    String traceFile;
+    int blockSize;
+    long l1Size;
+    int l1Assoc;
+    long l2Size;
+    int l2Assoc;
+    String replacementPolicy;
+    String inclusionProperty;
+
+    long l1Reads;
+    long l1ReadMisses;
+    long l1Writes;
+    long l1WriteMisses;
+    long l1Writebacks;
+    long l2Reads;
+    long l2ReadMisses;
+    long l2Writes;
+    long l2WriteMisses;
+    long l2Writebacks;
+    long memoryTraffic;
+    // counters of the victim cache, write-back buffer, timing model and prefetchers, when used,
+    // after the usual columns
+    Map<String, Object> extra = new LinkedHashMap<String, Object>();
+
+    static final String[] COLUMNS = { "trace_file", "blocksize", "l1_size", "l1_assoc", "l2_size", "l2_assoc",
+            "replacement_policy", "inclusion_property", "l1_reads", "l1_read_misses", "l1_writes",
+            "l1_write_misses", "l1_miss_rate", "l1_writebacks", "l2_reads", "l2_read_misses", "l2_writes",
+            "l2_write_misses", "l2_miss_rate", "l2_writebacks", "memory_traffic" };
+
+    public SimulationResult(OverallCache cache, String traceFile, String replacementPolicy,
+            String inclusionProperty) {
+        CacheLevel L1 = cache.L1;
+        CacheLevel L2 = cache.L2;
+        this.traceFile = traceFile;
+        this.blockSize = L1.blockSize;
+        this.l1Size = L1.cacheSize;
+        this.l1Assoc = L1.associativity;
+        this.replacementPolicy = replacementPolicy;
+        this.inclusionProperty = inclusionProperty;
+
+        this.l1Reads = L1.reads;
+        this.l1ReadMisses = L1.readMisses;
+        this.l1Writes = L1.writes;
+        this.l1WriteMisses = L1.writeMisses;
+        this.l1Writebacks = L1.writebacks;
+        this.memoryTraffic = cache.memoryTraffic();
+        if (L2 != null) {
+            this.l2Size = L2.cacheSize;
+            this.l2Assoc = L2.associativity;
+            this.l2Reads = L2.reads;
+            this.l2ReadMisses = L2.readMisses;
+            this.l2Writes = cache.l2Writes();
+            this.l2WriteMisses = L2.writeMisses;
+            this.l2Writebacks = L2.writebacks;
+        }
+    }
+
+    double l1MissRate() {
+        return (double) (this.l1ReadMisses + this.l1WriteMisses) / (this.l1Reads + this.l1Writes);
+    }
+
+    double l2MissRate() {
+        return this.l2Size > 0 ? (double) (this.l2ReadMisses + this.l2WriteMisses) / this.l2Reads : 0;
+    }
+
+    Object[] values() {
+        Object[] values = new Object[] { this.traceFile, this.blockSize, this.l1Size, this.l1Assoc, this.l2Size,
+                this.l2Assoc, this.replacementPolicy, this.inclusionProperty, this.l1Reads, this.l1ReadMisses,
+                this.l1Writes, this.l1WriteMisses, l1MissRate(), this.l1Writebacks, this.l2Reads,
+                this.l2ReadMisses, this.l2Writes, this.l2WriteMisses, l2MissRate(), this.l2Writebacks,
+                this.memoryTraffic };
+        if (this.extra.isEmpty()) {
+            return values;
+        }
+        Object[] all = Arrays.copyOf(values, values.length + this.extra.size());
+        System.arraycopy(this.extra.values().toArray(), 0, all, values.length, this.extra.size());
+        return all;
+    }
+
+    String[] columns() {
+        if (this.extra.isEmpty()) {
+            return COLUMNS;
+        }
+        String[] columns = Arrays.copyOf(COLUMNS, COLUMNS.length + this.extra.size());
+        System.arraycopy(this.extra.keySet().toArray(new String[0]), 0, columns, COLUMNS.length, this.extra.size());
+        return columns;
+    }
+
+    static String csvHeader() {
+        return String.join(",", COLUMNS);
+    }
+
+    // the header of toCsv, with the extra columns of this result
+    String header() {
+        return String.join(",", columns());
+    }
+
+    String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        Object[] values = values();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            Object value = values[i];
+            if (value instanceof String && (((String) value).indexOf(',') >= 0 || ((String) value).indexOf('"') >= 0)) {
+                sb.append('"').append(((String) value).replace("\"", "\"\"")).append('"');
+            } else {
+                sb.append(format(value));
+            }
+        }
+        return sb.toString();
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        String[] columns = columns();
+        Object[] values = values();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('"').append(columns[i]).append("\": ");
+            Object value = values[i];
+            if (value instanceof String) {
+                sb.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite())) {
+                sb.append("null");
+            } else {
+                sb.append(format(value));
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.6f", (Double) value);
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps hierarchies resident in one JVM and simulates accesses sent over a loopback socket, so
+ * scripts can run many short queries without paying for JVM startup and JIT warm-up each time,
+ * and can read the counters part way through a stream.
+ *
+ * java SimulationServer [-port N]
+ *
+ * Every connection is a session on its own thread, with its own hierarchies, so sessions never
+ * share state and run side by side. A session sends commands and reads one reply per command,
+ * all big endian:
+ *   CREATE    u8 1, i32 BLOCKSIZE, L1_SIZE, L1_ASSOC, L2_SIZE, L2_ASSOC, u8 replacement policy
+ *             code, u8 inclusion code; replies with the i32 id of the new hierarchy
+ *   ACCESS    u8 2, i32 id, i32 n, then n access bytes ('r', 'R', 'w' or 'W') and n i64
+ *             addresses; replies with the i64 number of accesses the hierarchy has simulated,
+ *             or with ERROR and nothing simulated if any access byte is something else
+ *   COUNTERS  u8 3, i32 id; replies with i32 COUNTERS.length and that many i64 counters
+ *   RESET     u8 4, i32 id; empties the hierarchy and zeroes its counters
+ *   DESTROY   u8 5, i32 id; frees the hierarchy
+ * A reply starts with u8 OK and its payload, or u8 ERROR and a modified UTF-8 message, after
+ * which the session carries on. Batches are read into a buffer the session reuses, so accesses
+ * are simulated without allocating. Optimal replacement needs the whole trace in advance and
+ * cannot be used, nor can the victim cache, prefetchers and other options of sim_cache.
+ */
+class SimulationServer {
+    static final int DEFAULT_PORT = 7878;
+
+    static final byte CREATE = 1;
+    static final byte ACCESS = 2;
+    static final byte COUNTERS = 3;
+    static final byte RESET = 4;
+    static final byte DESTROY = 5;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // the counters a COUNTERS reply carries, in order
+    static final String[] COUNTER_NAMES = { "accesses", "l1_reads", "l1_read_misses", "l1_writes",
+            "l1_write_misses", "l1_writebacks", "l2_reads", "l2_read_misses", "l2_writes", "l2_write_misses",
+            "l2_writebacks", "memory_traffic" };
+
+    // a batch larger than this is a broken frame rather than a request
+    static final int MAX_BATCH = 1 << 24;
+
+    final ServerSocket socket;
+    final ExecutorService sessions;
+
+    /**
+     * Listens on the loopback interface, on any free port if port is 0.
+     */
+    SimulationServer(int port) throws IOException {
+        this.socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.sessions = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "simulation-session");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    int port() {
+        return this.socket.getLocalPort();
+    }
+
+    /**
+     * Accepts sessions until the server is closed.
+     */
+    void serve() {
+        while (!this.socket.isClosed()) {
+            Socket connection;
+            try {
+                connection = this.socket.accept();
+            } catch (IOException e) {
+                // closed while waiting
+                break;
+            }
+            this.sessions.submit(() -> runSession(connection));
+        }
+    }
+
+    /**
+     * Accepts sessions on a background thread, for a server inside another program.
+     */
+    void start() {
+        Thread thread = new Thread(this::serve, "simulation-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() throws IOException {
+        this.socket.close();
+        this.sessions.shutdownNow();
+    }
+
+    /**
+     * One hierarchy of a session, with what it takes to start it afresh.
+     */
+    static class Hierarchy {
+        int blockSize;
+        int l1Size;
+        int l1Assoc;
+        int l2Size;
+        int l2Assoc;
+        int replacement;
+        int inclusion;
+        OverallCache cache;
+        long accesses;
+
+        void reset() {
+            this.cache = sim_cache.createCache(this.blockSize, this.l1Size, this.l1Assoc, this.l2Size, this.l2Assoc,
+                    this.replacement, this.inclusion, null);
+            this.accesses = 0;
+        }
+    }
+
+    private void runSession(Socket connection) {
+        List<Hierarchy> hierarchies = new ArrayList<Hierarchy>();
+        byte[] batch = new byte[0];
+        ByteBuffer addresses = null;
+        try (Socket s = connection;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 12))) {
+            s.setTcpNoDelay(true);
+            while (true) {
+                int command = in.read();
+                if (command < 0) {
+                    break;
+                }
+                try {
+                    if (command == CREATE) {
+                        Hierarchy hierarchy = new Hierarchy();
+                        hierarchy.blockSize = in.readInt();
+                        hierarchy.l1Size = in.readInt();
+                        hierarchy.l1Assoc = in.readInt();
+                        hierarchy.l2Size = in.readInt();
+                        hierarchy.l2Assoc = in.readInt();
+                        hierarchy.replacement = in.readUnsignedByte();
+                        hierarchy.inclusion = in.readUnsignedByte();
+                        if (hierarchy.replacement < 1 || hierarchy.replacement >= ReplacementPolicy.NAMES.length) {
+                            throw new IllegalArgumentException("unknown replacement policy code "
+                                    + hierarchy.replacement);
+                        }
+                        if (hierarchy.replacement == ReplacementPolicy.OPTIMAL) {
+                            throw new IllegalArgumentException("optimal replacement needs the whole trace in advance");
+                        }
+                        if (hierarchy.inclusion < 1 || hierarchy.inclusion > 3) {
+                            throw new IllegalArgumentException("unknown inclusion code " + hierarchy.inclusion);
+                        }
+                        hierarchy.reset();
+                        hierarchies.add(hierarchy);
+                        out.write(OK);
+                        out.writeInt(hierarchies.size() - 1);
+                    } else if (command == ACCESS) {
+                        int id = in.readInt();
+                        int n = in.readInt();
+                        if (n < 0 || n > MAX_BATCH) {
+                            // the rest of the stream cannot be framed any more
+                            throw new IOException("batch of " + n + " accesses");
+                        }
+                        int length = n * 9;
+                        if (batch.length < length) {
+                            batch = new byte[Math.max(length, 2 * batch.length)];
+                            addresses = ByteBuffer.wrap(batch);
+                        }
+                        // the batch is read whole before the id is checked, so the stream stays framed
+                        in.readFully(batch, 0, length);
+                        Hierarchy hierarchy = find(hierarchies, id);
+                        OverallCache cache = hierarchy.cache;
+                        // every op is checked before any is simulated, so a bad batch leaves the hierarchy alone
+                        for (int i = 0; i < n; i++) {
+                            batch[i] = op(batch[i], i);
+                        }
+                        for (int i = 0; i < n; i++) {
+                            cache.access((char) batch[i], addresses.getLong(n + 8 * i));
+                        }
+                        hierarchy.accesses += n;
+                        out.write(OK);
+                        out.writeLong(hierarchy.accesses);
+                    } else if (command == COUNTERS) {
+                        Hierarchy hierarchy = find(hierarchies, in.readInt());
+                        long[] counters = counters(hierarchy);
+                        out.write(OK);
+                        out.writeInt(counters.length);
+                        for (long counter : counters) {
+                            out.writeLong(counter);
+                        }
+                    } else if (command == RESET) {
+                        find(hierarchies, in.readInt()).reset();
+                        out.write(OK);
+                    } else if (command == DESTROY) {
+                        int id = in.readInt();
+                        find(hierarchies, id);
+                        hierarchies.set(id, null);
+                        out.write(OK);
+                    } else {
+                        throw new IOException("unknown command " + command);
+                    }
+                } catch (RuntimeException e) {
+                    // a bad geometry or id fails the command, not the session
+                    out.write(ERROR);
+                    out.writeUTF(e.getMessage() != null ? e.getMessage() : e.toString());
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // the client went away part way through a command
+        } catch (IOException e) {
+            System.err.println("session ended: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The op of access i of a batch as the hierarchy takes it. Like text traces, 'W' is a write
+     * and 'R' a read.
+     */
+    private static byte op(byte op, int i) {
+        if (op == 'w' || op == 'W') {
+            return 'w';
+        }
+        if (op == 'r' || op == 'R') {
+            return 'r';
+        }
+        throw new IllegalArgumentException("access " + i + " of the batch has unknown op " + (op & 0xff));
+    }
+
+    private static Hierarchy find(List<Hierarchy> hierarchies, int id) {
+        Hierarchy hierarchy = id >= 0 && id < hierarchies.size() ? hierarchies.get(id) : null;
+        if (hierarchy == null) {
+            throw new IllegalArgumentException("no hierarchy " + id);
+        }
+        return hierarchy;
+    }
+
+    static long[] counters(Hierarchy hierarchy) {
+        OverallCache cache = hierarchy.cache;
+        CacheLevel L1 = cache.L1;
+        CacheLevel L2 = cache.L2;
+        return new long[] { hierarchy.accesses, L1.reads, L1.readMisses, L1.writes, L1.writeMisses, L1.writebacks,
+                L2 != null ? L2.reads : 0, L2 != null ? L2.readMisses : 0, L2 != null ? cache.l2Writes() : 0,
+                L2 != null ? L2.writeMisses : 0, L2 != null ? L2.writebacks : 0, cache.memoryTraffic() };
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("usage: java SimulationServer [-port N]");
+                System.exit(1);
+            }
+        }
+        SimulationServer server = new SimulationServer(port);
+        System.err.println("listening on " + server.socket.getInetAddress().getHostAddress() + ":" + server.port());
+        server.serve();
+    }
+}
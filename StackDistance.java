@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * One-pass LRU stack-distance (Mattson) analysis. For every set count in a power-of-two range, the
+ * per-set stack distance of each access is measured in the same traversal of the trace, which
+ * gives the L1 misses of an LRU cache of every associativity up to maxAssoc at once.
+ *
+ * java StackDistance <trace_file> <BLOCKSIZE> <MIN_SETS> <MAX_SETS> <MAX_ASSOC> [-format csv|json]
+ *
+ * The results match sim_cache with LRU replacement for an L1 on its own or in a non-inclusive
+ * hierarchy, since neither lets L2 change what L1 holds.
+ */
+class StackDistance {
+    int blockSize;
+    int minSetBits;
+    int maxSetBits;
+    int maxAssoc;
+
+    // [set count][distance] for distances below maxAssoc, the last bucket holds larger
+    // distances and cold misses, which miss at every associativity up to maxAssoc
+    long[][] readHistogram;
+    long[][] writeHistogram;
+    long reads;
+    long writes;
+
+    // [set count] treap nodes, one per distinct block, keyed by the time of the block's last access
+    // key and priority are shared between set counts, the shape of each set's tree is not
+    private RecencyTreap[] treaps;
+    // [set count][set] root of the tree holding that set's blocks
+    private int[][] roots;
+
+    public StackDistance(int blockSize, int minSets, int maxSets, int maxAssoc) {
+        if (Integer.bitCount(blockSize) != 1 || Integer.bitCount(minSets) != 1 || Integer.bitCount(maxSets) != 1
+                || minSets > maxSets || maxAssoc < 1) {
+            throw new IllegalArgumentException("block size and set counts must be powers of two, MIN_SETS <= MAX_SETS"
+                    + " and MAX_ASSOC >= 1");
+        }
+        this.blockSize = blockSize;
+        this.minSetBits = Integer.numberOfTrailingZeros(minSets);
+        this.maxSetBits = Integer.numberOfTrailingZeros(maxSets);
+        this.maxAssoc = maxAssoc;
+
+        int setCounts = this.maxSetBits - this.minSetBits + 1;
+        this.readHistogram = new long[setCounts][maxAssoc + 1];
+        this.writeHistogram = new long[setCounts][maxAssoc + 1];
+    }
+
+    void analyze(Trace trace) {
+        int blockShift = Integer.numberOfTrailingZeros(this.blockSize);
+        int setCounts = this.maxSetBits - this.minSetBits + 1;
+
+        // number the distinct blocks so each one owns a treap node
+        int[] blockIds = new int[trace.size];
+        long[] blocks = new long[16];
+        int distinct = 0;
+        LongIntMap ids = new LongIntMap(1 << 16);
+        for (int i = 0; i < trace.size; i++) {
+            long block = trace.addresses[i] >>> blockShift;
+            int id = ids.get(block, -1);
+            if (id < 0) {
+                id = distinct++;
+                ids.put(block, id);
+                if (id == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, id * 2);
+                }
+                blocks[id] = block;
+            }
+            blockIds[i] = id;
+        }
+
+        this.treaps = new RecencyTreap[setCounts];
+        this.treaps[0] = new RecencyTreap(distinct);
+        long[] key = this.treaps[0].key;
+        for (int b = 0; b < distinct; b++) {
+            key[b] = -1;
+            this.treaps[0].prioritize(b);
+        }
+        this.roots = new int[setCounts][];
+        for (int k = 0; k < setCounts; k++) {
+            if (k > 0) {
+                this.treaps[k] = new RecencyTreap(this.treaps[0]);
+            }
+            this.roots[k] = new int[1 << (this.minSetBits + k)];
+            Arrays.fill(this.roots[k], -1);
+        }
+
+        for (int t = 0; t < trace.size; t++) {
+            int b = blockIds[t];
+            long last = key[b];
+            long block = blocks[b];
+            long[][] histogram = trace.ops[t] == 'w' ? this.writeHistogram : this.readHistogram;
+
+            for (int k = 0; k < setCounts; k++) {
+                RecencyTreap treap = this.treaps[k];
+                int set = (int) (block & ((1L << (this.minSetBits + k)) - 1));
+                int root = this.roots[k][set];
+
+                int distance;
+                if (last < 0) {
+                    // cold miss
+                    distance = this.maxAssoc;
+                } else {
+                    // the blocks used after this block's last access are its distance
+                    root = treap.remove(root, last);
+                    distance = Math.min(treap.above, this.maxAssoc);
+                }
+                histogram[k][distance]++;
+                // the block is now the most recently used, which is the largest key in the set
+                this.roots[k][set] = treap.append(root, b);
+            }
+
+            key[b] = t;
+            if (trace.ops[t] == 'w') {
+                this.writes++;
+            } else {
+                this.reads++;
+            }
+        }
+    }
+
+    /**
+     * Misses of an LRU cache with 2^setBits sets of the given associativity.
+     */
+    long misses(long[][] histogram, int setBits, int assoc) {
+        long misses = 0;
+        long[] counts = histogram[setBits - this.minSetBits];
+        for (int d = assoc; d <= this.maxAssoc; d++) {
+            misses += counts[d];
+        }
+        return misses;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.err.println(
+                    "usage: java StackDistance <trace_file> <BLOCKSIZE> <MIN_SETS> <MAX_SETS> <MAX_ASSOC> [-format csv|json]");
+            System.exit(1);
+        }
+        String traceFile = args[0];
+        int blockSize = Integer.parseInt(args[1]);
+        String format = "csv";
+        for (int i = 5; i < args.length; i++) {
+            if (args[i].equals("-format") && i + 1 < args.length) {
+                format = args[++i];
+            } else {
+                throw new IllegalArgumentException("unrecognized option " + args[i]);
+            }
+        }
+        if (!(format.equals("csv") || format.equals("json"))) {
+            throw new IllegalArgumentException("unknown -format " + format + ", expected csv or json");
+        }
+        boolean json = format.equals("json");
+
+        Trace trace = Trace.read(traceFile);
+        if ((1 << trace.blockShift) > blockSize) {
+            throw new IllegalArgumentException(traceFile + " was reduced to " + (1 << trace.blockShift)
+                    + " byte blocks and cannot be analyzed with BLOCKSIZE " + blockSize);
+        }
+        StackDistance analysis = new StackDistance(blockSize, Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                Integer.parseInt(args[4]));
+        analysis.analyze(trace);
+
+        StringBuilder out = new StringBuilder();
+        if (json) {
+            out.append("[\n");
+        } else {
+            out.append("sets,l1_assoc,l1_size,l1_reads,l1_read_misses,l1_writes,l1_write_misses,l1_miss_rate\n");
+        }
+        boolean first = true;
+        for (int setBits = analysis.minSetBits; setBits <= analysis.maxSetBits; setBits++) {
+            for (int assoc = 1; assoc <= analysis.maxAssoc; assoc++) {
+                long readMisses = analysis.misses(analysis.readHistogram, setBits, assoc);
+                long writeMisses = analysis.misses(analysis.writeHistogram, setBits, assoc);
+                double missRate = (double) (readMisses + writeMisses) / (analysis.reads + analysis.writes);
+                long cacheSize = (long) (1 << setBits) * assoc * blockSize;
+                if (json) {
+                    out.append(first ? "  " : ",\n  ");
+                    out.append(String.format(Locale.ROOT,
+                            "{\"sets\": %d, \"l1_assoc\": %d, \"l1_size\": %d, \"l1_reads\": %d, \"l1_read_misses\": %d,"
+                                    + " \"l1_writes\": %d, \"l1_write_misses\": %d, \"l1_miss_rate\": %.6f}",
+                            1 << setBits, assoc, cacheSize, analysis.reads, readMisses, analysis.writes,
+                            writeMisses, missRate));
+                } else {
+                    out.append(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%.6f\n", 1 << setBits, assoc,
+                            cacheSize, analysis.reads, readMisses, analysis.writes, writeMisses, missRate));
+                }
+                first = false;
+            }
+        }
+        if (json) {
+            out.append("\n]\n");
+        }
+        System.out.print(out);
+    }
+}
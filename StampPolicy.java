@@ -0,0 +1,42 @@
+/**
+ * LRU, FIFO, MRU and LIFO, which only differ in whether hits move a block to the front of its set
+ * and in which end of the set they evict. Each block's stamp is its position in the set.
+ */
+class StampPolicy extends ReplacementPolicy {
+    // LRU and MRU move every hit, read or write, to the front; FIFO and LIFO keep insertion order
+    final boolean touchOnHit;
+    final boolean evictNewest;
+
+    StampPolicy(CacheLevel level, boolean touchOnHit, boolean evictNewest) {
+        super(level);
+        this.touchOnHit = touchOnHit;
+        this.evictNewest = evictNewest;
+    }
+
+    @Override
+    void hit(int setNumber, int slot, boolean write) {
+        if (this.touchOnHit) {
+            touch(slot);
+        }
+    }
+
+    @Override
+    void fill(int setNumber, int slot, boolean evicted, boolean prefetch) {
+        touch(slot);
+    }
+
+    @Override
+    int victim(int setNumber) {
+        long[] stamps = this.level.stamps;
+        int base = setNumber * this.associativity;
+        int victim = 0;
+        for (int way = 1; way < this.associativity; way++) {
+            // LRU/FIFO evict the back of the set, MRU/LIFO the front
+            if (this.evictNewest ? stamps[base + way] > stamps[base + victim]
+                    : stamps[base + way] < stamps[base + victim]) {
+                victim = way;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Stream buffers in the style of Jouppi: a miss that no stream expects starts a new stream at the
+ * following block, replacing the least recently used stream, and each stream keeps depth blocks
+ * fetched ahead of the accesses that follow it. The prefetched blocks are filled into the cache
+ * rather than held in separate buffers, so they share the level's prefetch accounting.
+ */
+class StreamPrefetcher extends Prefetcher {
+    int depth;
+    // per stream: the next block expected, the block after the last one fetched, and last use
+    long[] next;
+    long[] fetched;
+    long[] lastUse;
+    boolean[] active;
+    long clock;
+
+    public StreamPrefetcher(String spec, int blockSize, int streams, int depth) {
+        super(spec, blockSize, depth);
+        this.depth = depth;
+        this.next = new long[streams];
+        this.fetched = new long[streams];
+        this.lastUse = new long[streams];
+        this.active = new boolean[streams];
+        this.clock = 0;
+    }
+
+    @Override
+    int observe(long address, boolean miss) {
+        long block = address >>> this.blockShift;
+        this.clock++;
+
+        int stream = -1;
+        for (int s = 0; s < this.next.length; s++) {
+            if (this.active[s] && block >= this.next[s] && block < this.fetched[s]) {
+                stream = s;
+                break;
+            }
+        }
+
+        if (stream == -1) {
+            if (!miss) {
+                return 0;
+            }
+            // start a new stream in place of the least recently used one
+            stream = 0;
+            for (int s = 0; s < this.next.length; s++) {
+                if (!this.active[s]) {
+                    stream = s;
+                    break;
+                }
+                if (this.lastUse[s] < this.lastUse[stream]) {
+                    stream = s;
+                }
+            }
+            this.active[stream] = true;
+            this.fetched[stream] = block + 1;
+        }
+
+        this.next[stream] = block + 1;
+        this.lastUse[stream] = this.clock;
+        int count = 0;
+        while (this.fetched[stream] < block + 1 + this.depth) {
+            this.candidates[count++] = this.fetched[stream] << this.blockShift;
+            this.fetched[stream]++;
+        }
+        return count;
+    }
+}
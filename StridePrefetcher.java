@@ -0,0 +1,66 @@
+import java.util.Arrays;
+
+/**
+ * Detects a constant stride between successive accesses to the same 4KB region and fetches degree
+ * blocks ahead along it. Traces carry no PC, so regions stand in for the load instructions a
+ * hardware stride table would be indexed by. The table is direct-mapped, and a region that loses
+ * its entry starts training again.
+ */
+class StridePrefetcher extends Prefetcher {
+    static final int REGION_SHIFT = 12;
+    static final int TABLE_SIZE = 64;
+    // a stride has to repeat this many times before it is trusted
+    static final int CONFIDENT = 1;
+    static final int MAX_CONFIDENCE = 3;
+
+    int degree;
+    long[] regions;
+    long[] lastBlocks;
+    long[] strides;
+    int[] confidence;
+
+    public StridePrefetcher(String spec, int blockSize, int degree) {
+        super(spec, blockSize, degree);
+        this.degree = degree;
+        this.regions = new long[TABLE_SIZE];
+        this.lastBlocks = new long[TABLE_SIZE];
+        this.strides = new long[TABLE_SIZE];
+        this.confidence = new int[TABLE_SIZE];
+        Arrays.fill(this.regions, -1);
+    }
+
+    @Override
+    int observe(long address, boolean miss) {
+        long block = address >>> this.blockShift;
+        long region = address >>> REGION_SHIFT;
+        int entry = (int) ((region ^ (region >>> 6)) & (TABLE_SIZE - 1));
+
+        if (this.regions[entry] != region) {
+            this.regions[entry] = region;
+            this.lastBlocks[entry] = block;
+            this.strides[entry] = 0;
+            this.confidence[entry] = 0;
+            return 0;
+        }
+
+        long delta = block - this.lastBlocks[entry];
+        if (delta == 0) {
+            return 0;
+        }
+        if (delta == this.strides[entry]) {
+            this.confidence[entry] = Math.min(this.confidence[entry] + 1, MAX_CONFIDENCE);
+        } else {
+            this.strides[entry] = delta;
+            this.confidence[entry] = 0;
+        }
+        this.lastBlocks[entry] = block;
+
+        if (this.confidence[entry] < CONFIDENT) {
+            return 0;
+        }
+        for (int i = 0; i < this.degree; i++) {
+            this.candidates[i] = (block + delta * (i + 1)) << this.blockShift;
+        }
+        return this.degree;
+    }
+}
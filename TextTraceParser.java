@@ -0,0 +1,62 @@
+/**
+ * Byte-at-a-time parser for text traces of "r <hex>" / "w <hex>" lines, shared by the
+ * memory-mapped and the streaming readers. 'w' and 'W' are writes and any other op is treated as
+ * a read, like the simulator always has.
+ */
+class TextTraceParser {
+    // 0 = start of line, 1 = after the op, 2 = in the address, 3 = skipping to end of line
+    private int state;
+
+    // the access completed by the last feed() or finish() that returned true
+    byte op;
+    long address;
+
+    public TextTraceParser() {
+        this.state = 0;
+        this.op = 'r';
+        this.address = 0;
+    }
+
+    /**
+     * Consumes one byte, returns true if it completed an access.
+     */
+    boolean feed(byte c) {
+        boolean newline = (c == '\n' || c == '\r');
+
+        if (this.state == 0) {
+            if (!newline && c != ' ' && c != '\t') {
+                this.op = (c == 'w' || c == 'W') ? (byte) 'w' : (byte) 'r';
+                this.state = 1;
+            }
+        } else if (this.state == 1) {
+            int digit = Trace.hexValue(c);
+            if (digit >= 0) {
+                this.address = digit;
+                this.state = 2;
+            } else if (newline) {
+                // an op without an address, nothing to record
+                this.state = 0;
+            }
+        } else if (this.state == 2) {
+            int digit = Trace.hexValue(c);
+            if (digit >= 0) {
+                this.address = (this.address << 4) | digit;
+            } else {
+                this.state = newline ? 0 : 3;
+                return true;
+            }
+        } else if (newline) {
+            this.state = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Call at the end of the input, returns true if the last line had no line break.
+     */
+    boolean finish() {
+        boolean pending = (this.state == 2);
+        this.state = 0;
+        return pending;
+    }
+}
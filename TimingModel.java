@@ -0,0 +1,163 @@
+/**
+ * Assigns each access a completion time. Accesses arrive one per cycle in trace order and issue in
+ * order, and the latency of an access runs from when it was ready to issue to completion. A hit
+ * completes after the L1 latency. An L1 miss holds one of a limited number of miss status holding
+ * registers (MSHRs) until its block arrives, and an access that misses while all of them are busy
+ * stalls issue until one frees up. Blocks come from the victim cache or write-back buffer, L2, or
+ * memory. Every block moved to or from memory occupies the single memory channel, so writebacks
+ * and prefetches delay the demand misses behind them.
+ *
+ * What each access did is read from the counters of the hierarchy before and after it, so every
+ * inclusion property and optional structure is timed the same way.
+ *
+ * Configured with a spec of comma separated key=value pairs, any of which can be left out:
+ *   l1=1,l2=10,mem=100,buffer=2,mshrs=8,transfer=4,writeback=4
+ * l1, l2 and mem are access latencies, buffer the latency of a victim cache or write-back buffer
+ * hit, transfer and writeback the cycles the memory channel is busy per block read or written.
+ */
+class TimingModel {
+    int l1Latency = 1;
+    int l2Latency = 10;
+    int memoryLatency = 100;
+    int bufferLatency = 2;
+    int mshrs = 8;
+    int transferCycles = 4;
+    int writebackCycles = 4;
+
+    // completion time of the miss each MSHR is tracking
+    long[] mshrFree;
+    long arrival;
+    long lastIssue;
+    long channelFree;
+
+    long accesses;
+    long totalLatency;
+    long totalCycles;
+    long mshrStallCycles;
+    long channelStallCycles;
+    // latencyHistogram[k] counts latencies in [2^(k-1), 2^k)
+    long[] latencyHistogram;
+
+    // counters of the hierarchy when the current access started
+    private long l2Reads;
+    private long l2ReadMisses;
+    private long memoryReads;
+    private long memoryWrites;
+
+    public TimingModel() {
+        this.latencyHistogram = new long[64];
+        this.arrival = 0;
+        this.lastIssue = -1;
+        this.channelFree = 0;
+    }
+
+    static TimingModel parse(String spec) {
+        TimingModel timing = new TimingModel();
+        for (String pair : spec.split(",")) {
+            if (pair.isEmpty() || pair.equals("default")) {
+                continue;
+            }
+            String[] fields = pair.split("=");
+            if (fields.length != 2) {
+                throw new IllegalArgumentException("unrecognized timing parameter " + pair);
+            }
+            int value = Integer.parseInt(fields[1]);
+            if (value < (fields[0].equals("mshrs") ? 1 : 0)) {
+                throw new IllegalArgumentException("timing parameter " + pair + " is out of range");
+            }
+            if (fields[0].equals("l1")) {
+                timing.l1Latency = value;
+            } else if (fields[0].equals("l2")) {
+                timing.l2Latency = value;
+            } else if (fields[0].equals("mem")) {
+                timing.memoryLatency = value;
+            } else if (fields[0].equals("buffer")) {
+                timing.bufferLatency = value;
+            } else if (fields[0].equals("mshrs")) {
+                timing.mshrs = value;
+            } else if (fields[0].equals("transfer")) {
+                timing.transferCycles = value;
+            } else if (fields[0].equals("writeback")) {
+                timing.writebackCycles = value;
+            } else {
+                throw new IllegalArgumentException("unrecognized timing parameter " + pair);
+            }
+        }
+        timing.mshrFree = new long[timing.mshrs];
+        return timing;
+    }
+
+    void begin(OverallCache cache) {
+        if (cache.L2 != null) {
+            this.l2Reads = cache.L2.reads;
+            this.l2ReadMisses = cache.L2.readMisses;
+        }
+        this.memoryReads = cache.memoryReads();
+        this.memoryWrites = cache.memoryWrites();
+    }
+
+    void end(OverallCache cache) {
+        // the access is ready once it arrived and the one before it issued, its latency counts from
+        // then, so a stall is charged to the access that waited for an MSHR and not to all behind it
+        long ready = Math.max(this.arrival++, this.lastIssue + 1);
+        long issue = ready;
+        long newReads = cache.memoryReads() - this.memoryReads;
+        long newWrites = cache.memoryWrites() - this.memoryWrites;
+
+        long completion;
+        if (cache.L1.lastHit) {
+            completion = issue + this.l1Latency;
+        } else {
+            // wait for the MSHR that frees up first
+            int mshr = 0;
+            for (int i = 1; i < this.mshrs; i++) {
+                if (this.mshrFree[i] < this.mshrFree[mshr]) {
+                    mshr = i;
+                }
+            }
+            if (this.mshrFree[mshr] > issue) {
+                this.mshrStallCycles += this.mshrFree[mshr] - issue;
+                issue = this.mshrFree[mshr];
+            }
+
+            boolean fromMemory;
+            boolean fromL2;
+            if (cache.L2 != null) {
+                fromMemory = cache.L2.readMisses > this.l2ReadMisses;
+                fromL2 = cache.L2.reads > this.l2Reads;
+            } else {
+                fromMemory = true;
+                fromL2 = false;
+            }
+
+            if (fromMemory) {
+                long request = issue + this.l1Latency + (cache.L2 != null ? this.l2Latency : 0);
+                long start = Math.max(request, this.channelFree);
+                this.channelStallCycles += start - request;
+                this.channelFree = start + this.transferCycles;
+                completion = start + this.memoryLatency;
+                newReads--;
+            } else if (fromL2) {
+                completion = issue + this.l1Latency + this.l2Latency;
+            } else {
+                completion = issue + this.l1Latency + this.bufferLatency;
+            }
+            this.mshrFree[mshr] = completion;
+        }
+
+        // writebacks and prefetches use the channel after the demand miss
+        this.channelFree = Math.max(this.channelFree, issue) + newReads * this.transferCycles
+                + newWrites * this.writebackCycles;
+
+        this.lastIssue = issue;
+        long latency = completion - ready;
+        this.accesses++;
+        this.totalLatency += latency;
+        this.latencyHistogram[64 - Long.numberOfLeadingZeros(latency)]++;
+        this.totalCycles = Math.max(this.totalCycles, completion);
+    }
+
+    double averageAccessTime() {
+        return (double) this.totalLatency / this.accesses;
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A whole trace held in primitive buffers: ops[i] is 'r' or 'w' and addresses[i] is the full
+ * 64-bit byte address of access i.
+ */
+class Trace {
+    // mapping windows are kept well below the 2GB limit of a single MappedByteBuffer
+    private static final long MAP_CHUNK = 1L << 30;
+
+    int size;
+    byte[] ops;
+    long[] addresses;
+    // log2 of the block size the addresses were already reduced to, 0 for full byte addresses
+    int blockShift;
+
+    public Trace(int capacity) {
+        this.size = 0;
+        this.blockShift = 0;
+        this.ops = new byte[Math.max(capacity, 16)];
+        this.addresses = new long[Math.max(capacity, 16)];
+    }
+
+    void add(byte op, long address) {
+        if (this.size == this.ops.length) {
+            int newCapacity = this.ops.length * 2;
+            this.ops = Arrays.copyOf(this.ops, newCapacity);
+            this.addresses = Arrays.copyOf(this.addresses, newCapacity);
+        }
+        this.ops[this.size] = op;
+        this.addresses[this.size] = address;
+        this.size++;
+    }
+
+    /**
+     * Reads either a binary trace or a text trace, depending on the magic at the start of the file.
+     * Standard input ("-") and gzip compressed traces are read through a TraceStream.
+     */
+    static Trace read(String traceFile) throws IOException {
+        if (TraceStream.isStream(traceFile)) {
+            try (TraceStream stream = TraceStream.open(traceFile)) {
+                return stream.readAll();
+            }
+        }
+        if (BinaryTraceReader.isBinaryTrace(traceFile)) {
+            try (BinaryTraceReader reader = new BinaryTraceReader(new FileInputStream(traceFile))) {
+                return reader.readAll();
+            }
+        }
+        return readText(traceFile);
+    }
+
+    /**
+     * Reads a text trace of "r <hex>" / "w <hex>" lines in one pass over a memory mapping of the
+     * file.
+     */
+    static Trace readText(String traceFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(traceFile), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            // a typical line is around 11 bytes, so this rarely needs to grow
+            Trace trace = new Trace((int) Math.min(fileSize / 10 + 1, Integer.MAX_VALUE - 8));
+
+            TextTraceParser parser = new TextTraceParser();
+            for (long offset = 0; offset < fileSize; offset += MAP_CHUNK) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(MAP_CHUNK, fileSize - offset));
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    if (parser.feed(buffer.get(i))) {
+                        trace.add(parser.op, parser.address);
+                    }
+                }
+            }
+
+            if (parser.finish()) {
+                trace.add(parser.op, parser.address);
+            }
+            return trace;
+        }
+    }
+
+    /**
+     * Reads the split layout used by the RTL testbench: one hex address per line in addressFile
+     * and the matching ASCII op code in hex (52 = 'R', 57 = 'W') per line in actionFile.
+     */
+    static Trace readSplit(String addressFile, String actionFile) throws IOException {
+        Trace addresses = readHexLines(addressFile);
+        Trace actions = readHexLines(actionFile);
+        if (addresses.size != actions.size) {
+            throw new IOException(addressFile + " has " + addresses.size + " addresses but " + actionFile + " has "
+                    + actions.size + " actions");
+        }
+
+        Trace trace = new Trace(addresses.size);
+        for (int i = 0; i < addresses.size; i++) {
+            long action = actions.addresses[i];
+            trace.add((action == 'W' || action == 'w') ? (byte) 'w' : (byte) 'r', addresses.addresses[i]);
+        }
+        return trace;
+    }
+
+    /**
+     * Parses one hex value per line into the addresses buffer, ops are left as reads.
+     */
+    private static Trace readHexLines(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            Trace values = new Trace((int) Math.min(fileSize / 8 + 1, Integer.MAX_VALUE - 8));
+
+            boolean inValue = false;
+            long value = 0;
+            for (long offset = 0; offset < fileSize; offset += MAP_CHUNK) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(MAP_CHUNK, fileSize - offset));
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    int digit = hexValue(buffer.get(i));
+                    if (digit >= 0) {
+                        value = inValue ? (value << 4) | digit : digit;
+                        inValue = true;
+                    } else if (inValue) {
+                        values.add((byte) 'r', value);
+                        inValue = false;
+                    }
+                }
+            }
+
+            if (inValue) {
+                values.add((byte) 'r', value);
+            }
+            return values;
+        }
+    }
+
+    static int hexValue(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,47 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Converts text traces to the binary trace format.
+ *
+ * java TraceConverter text <trace_file> <out_file> [BLOCKSIZE]
+ * java TraceConverter rtl <addresses_file> <actions_file> <out_file> [BLOCKSIZE]
+ *
+ * With BLOCKSIZE the offset bits are dropped, so the result can only be simulated with that
+ * block size or a larger one.
+ */
+class TraceConverter {
+    public static void main(String[] args) throws IOException {
+        Trace trace;
+        String outFile;
+        int blockSize = 1;
+        if (args.length >= 3 && args[0].equals("text")) {
+            trace = Trace.read(args[1]);
+            outFile = args[2];
+            if (args.length > 3) {
+                blockSize = Integer.parseInt(args[3]);
+            }
+        } else if (args.length >= 4 && args[0].equals("rtl")) {
+            trace = Trace.readSplit(args[1], args[2]);
+            outFile = args[3];
+            if (args.length > 4) {
+                blockSize = Integer.parseInt(args[4]);
+            }
+        } else {
+            System.err.println("usage: java TraceConverter text <trace_file> <out_file> [BLOCKSIZE]");
+            System.err.println("       java TraceConverter rtl <addresses_file> <actions_file> <out_file> [BLOCKSIZE]");
+            System.exit(1);
+            return;
+        }
+
+        if (Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("BLOCKSIZE must be a power of two: " + blockSize);
+        }
+        int blockShift = Math.max(Integer.numberOfTrailingZeros(blockSize), trace.blockShift);
+
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(new FileOutputStream(outFile), trace.size, blockShift)) {
+            writer.addAll(trace);
+        }
+        System.out.println("wrote " + trace.size + " accesses to " + outFile);
+    }
+}
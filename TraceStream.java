@@ -0,0 +1,166 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a trace one access at a time with bounded memory, from a file, standard input ("-") or a
+ * WorkloadGenerator ("gen:<spec>"). Gzip compression and the binary trace format are detected from
+ * the first bytes of the input.
+ */
+class TraceStream implements Closeable {
+    static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final BinaryTraceReader binary;
+    private final TextTraceParser parser;
+    private final WorkloadGenerator generator;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    private boolean finished;
+
+    // the access decoded by the last successful next()
+    char op;
+    long address;
+    // log2 of the block size the addresses were already reduced to, 0 for full byte addresses
+    int blockShift;
+
+    private TraceStream(InputStream in) throws IOException {
+        this.in = in;
+        this.generator = null;
+        this.pos = 0;
+        this.limit = 0;
+        this.finished = false;
+        if (startsWith(in, BinaryTraceWriter.MAGIC)) {
+            this.binary = new BinaryTraceReader(in);
+            this.blockShift = this.binary.blockShift;
+            this.parser = null;
+            this.buffer = null;
+        } else {
+            this.binary = null;
+            this.blockShift = 0;
+            this.parser = new TextTraceParser();
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+    }
+
+    private TraceStream(WorkloadGenerator generator) {
+        this.in = null;
+        this.binary = null;
+        this.parser = null;
+        this.buffer = null;
+        this.generator = generator;
+        this.blockShift = 0;
+    }
+
+    static TraceStream open(String traceFile) throws IOException {
+        if (WorkloadGenerator.isGenerator(traceFile)) {
+            return new TraceStream(WorkloadGenerator.parse(traceFile));
+        }
+        InputStream raw = traceFile.equals("-") ? System.in : new FileInputStream(traceFile);
+        InputStream in = new BufferedInputStream(raw, BUFFER_SIZE);
+        if (startsWith(in, GZIP_MAGIC)) {
+            in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return new TraceStream(in);
+    }
+
+    /**
+     * True for inputs that can only be read front to back: standard input, gzip files and
+     * generated workloads.
+     */
+    static boolean isStream(String traceFile) throws IOException {
+        if (traceFile.equals("-") || WorkloadGenerator.isGenerator(traceFile)) {
+            return true;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(traceFile), GZIP_MAGIC.length)) {
+            return startsWith(in, GZIP_MAGIC);
+        }
+    }
+
+    private static boolean startsWith(InputStream in, byte[] magic) throws IOException {
+        in.mark(magic.length);
+        byte[] head = new byte[magic.length];
+        int read = in.readNBytes(head, 0, head.length);
+        in.reset();
+        if (read < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the next access into op and address, returns false at the end of the trace.
+     */
+    boolean next() throws IOException {
+        if (this.generator != null) {
+            if (!this.generator.next()) {
+                return false;
+            }
+            this.op = this.generator.op;
+            this.address = this.generator.address;
+            return true;
+        }
+        if (this.binary != null) {
+            if (!this.binary.next()) {
+                return false;
+            }
+            this.op = this.binary.op;
+            this.address = this.binary.address;
+            return true;
+        }
+
+        while (true) {
+            if (this.pos == this.limit) {
+                if (this.finished) {
+                    return false;
+                }
+                this.limit = this.in.read(this.buffer, 0, this.buffer.length);
+                this.pos = 0;
+                if (this.limit <= 0) {
+                    this.limit = 0;
+                    this.finished = true;
+                    if (this.parser.finish()) {
+                        this.op = (char) this.parser.op;
+                        this.address = this.parser.address;
+                        return true;
+                    }
+                    return false;
+                }
+            }
+            if (this.parser.feed(this.buffer[this.pos++])) {
+                this.op = (char) this.parser.op;
+                this.address = this.parser.address;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of the stream into memory, for policies that need to see the whole trace.
+     */
+    Trace readAll() throws IOException {
+        Trace trace = new Trace(1 << 16);
+        trace.blockShift = this.blockShift;
+        while (next()) {
+            trace.add((byte) this.op, this.address);
+        }
+        return trace;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.in != null) {
+            this.in.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Tree pseudo-LRU. Each set has a binary tree over its ways with one bit per internal node,
+ * pointing to the half that was used less recently. An access flips the bits on its path to point
+ * away from its way, and the victim is found by following the bits from the root. The assoc - 1
+ * bits of a set are packed into one long, node n in bit n with the root at 1, so the associativity
+ * must be a power of two no larger than 64.
+ *
+ * When a removal compacts a set, as every exclusive L2 hit does, the moved block takes its standing
+ * in the tree along: from the node where the paths of its old and new way part, each node on the
+ * new path is set to point towards or away from it as the node at the same depth on the old path
+ * did. The way it left is empty and is filled before any victim is chosen.
+ */
+class TreePlruPolicy extends ReplacementPolicy {
+    final int levels;
+
+    TreePlruPolicy(CacheLevel level) {
+        super(level);
+        if (Integer.bitCount(this.associativity) != 1 || this.associativity > 64) {
+            throw new IllegalArgumentException("PLRU needs a power of two associativity of at most 64, not "
+                    + this.associativity);
+        }
+        this.levels = Integer.numberOfTrailingZeros(this.associativity);
+        this.wordsPerSet = 1;
+        this.state = new long[level.numSets];
+    }
+
+    @Override
+    void hit(int setNumber, int slot, boolean write) {
+        use(setNumber, slot);
+    }
+
+    @Override
+    void fill(int setNumber, int slot, boolean evicted, boolean prefetch) {
+        use(setNumber, slot);
+    }
+
+    private void use(int setNumber, int slot) {
+        int way = slot - setNumber * this.associativity;
+        long bits = this.state[setNumber];
+        int node = 1;
+        for (int l = this.levels - 1; l >= 0; l--) {
+            int direction = (way >>> l) & 1;
+            // point at the other half
+            if (direction == 0) {
+                bits |= 1L << node;
+            } else {
+                bits &= ~(1L << node);
+            }
+            node = 2 * node + direction;
+        }
+        this.state[setNumber] = bits;
+        touch(slot);
+    }
+
+    @Override
+    void move(int setNumber, int from, int to) {
+        super.move(setNumber, from, to);
+        int base = setNumber * this.associativity;
+        int fromWay = from - base;
+        int toWay = to - base;
+        long bits = this.state[setNumber];
+        int fromNode = 1;
+        int toNode = 1;
+        boolean parted = false;
+        for (int l = this.levels - 1; l >= 0; l--) {
+            int fromDirection = (fromWay >>> l) & 1;
+            int toDirection = (toWay >>> l) & 1;
+            parted |= fromDirection != toDirection;
+            if (parted) {
+                // the node pointed away from the block if the block was used more recently
+                boolean away = ((bits >>> fromNode) & 1) != fromDirection;
+                long bit = away ? 1 - toDirection : toDirection;
+                bits = (bits & ~(1L << toNode)) | (bit << toNode);
+            }
+            fromNode = 2 * fromNode + fromDirection;
+            toNode = 2 * toNode + toDirection;
+        }
+        this.state[setNumber] = bits;
+    }
+
+    @Override
+    int victim(int setNumber) {
+        long bits = this.state[setNumber];
+        int node = 1;
+        while (node < this.associativity) {
+            node = 2 * node + (int) ((bits >>> node) & 1);
+        }
+        return node - this.associativity;
+    }
+}
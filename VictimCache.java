@@ -0,0 +1,126 @@
+/**
+ * A small fully associative cache behind L1 holding the blocks L1 evicted most recently, clean or
+ * dirty. It is probed on an L1 miss before L2, and a hit swaps the requested block with the L1
+ * victim. Entries are replaced least recently inserted first, and a dirty entry pushed out is
+ * written back to L2.
+ */
+class VictimCache {
+    int entries;
+    long[] addresses;
+    boolean[] dirty;
+    long[] positions;
+    long[] stamps;
+    int fill;
+    long clock;
+
+    // reusable holder for the entry pushed out by the last insert
+    Block overflowed;
+
+    long probes;
+    long hits;
+    long insertions;
+    long overflows;
+    long dirtyOverflows;
+    // entries removed because an inclusive L2 evicted the block, and the dirty ones among them
+    long invalidations;
+    long invalidationWritebacks;
+
+    public VictimCache(int entries) {
+        if (entries < 1) {
+            throw new IllegalArgumentException("a victim cache needs at least one entry");
+        }
+        this.entries = entries;
+        this.addresses = new long[entries];
+        this.dirty = new boolean[entries];
+        this.positions = new long[entries];
+        this.stamps = new long[entries];
+        this.fill = 0;
+        this.clock = 0;
+        this.overflowed = new Block();
+    }
+
+    /**
+     * Looks up a block address on an L1 miss. Returns the entry holding it, or -1.
+     */
+    int probe(long address) {
+        this.probes++;
+        int entry = find(address);
+        if (entry != -1) {
+            this.hits++;
+        }
+        return entry;
+    }
+
+    int find(long address) {
+        for (int i = 0; i < this.fill; i++) {
+            if (this.addresses[i] == address) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an L1 victim. The returned block is valid if the oldest entry had to make room.
+     */
+    Block insert(long address, boolean dirty, long position) {
+        this.insertions++;
+        Block removedBlock = this.overflowed;
+        removedBlock.valid = false;
+
+        int entry;
+        if (this.fill < this.entries) {
+            entry = this.fill++;
+        } else {
+            entry = 0;
+            for (int i = 1; i < this.entries; i++) {
+                if (this.stamps[i] < this.stamps[entry]) {
+                    entry = i;
+                }
+            }
+            removedBlock.valid = true;
+            removedBlock.address = this.addresses[entry];
+            removedBlock.dirty = this.dirty[entry];
+            removedBlock.position = this.positions[entry];
+            this.overflows++;
+            if (removedBlock.dirty) {
+                this.dirtyOverflows++;
+            }
+        }
+        replace(entry, address, dirty, position);
+        return removedBlock;
+    }
+
+    /**
+     * Puts the L1 victim into the entry the requested block is leaving, the swap on a hit.
+     */
+    void replace(int entry, long address, boolean dirty, long position) {
+        this.addresses[entry] = address;
+        this.dirty[entry] = dirty;
+        this.positions[entry] = position;
+        this.stamps[entry] = ++this.clock;
+    }
+
+    void remove(int entry) {
+        int last = --this.fill;
+        this.addresses[entry] = this.addresses[last];
+        this.dirty[entry] = this.dirty[last];
+        this.positions[entry] = this.positions[last];
+        this.stamps[entry] = this.stamps[last];
+    }
+
+    /**
+     * Drops a block an inclusive L2 evicted. A dirty block is written straight back to memory.
+     */
+    void invalidate(long address) {
+        int entry = find(address);
+        if (entry == -1) {
+            return;
+        }
+        this.invalidations++;
+        if (this.dirty[entry]) {
+            this.invalidationWritebacks++;
+        }
+        remove(entry);
+    }
+}
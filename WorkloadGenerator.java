@@ -0,0 +1,368 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates a synthetic trace on the fly, so that long runs need no trace file. A trace_file of
+ * the form gen:<spec> is read through a TraceStream like any other trace.
+ *
+ * The spec is a list of phases separated by '/', each a comma separated list of key=value pairs,
+ * or just a pattern name for a phase with the defaults:
+ *   gen:pattern=zipf,size=64M,writes=0.2/pattern=seq,size=256M,length=5M,accesses=1G,seed=7
+ * The phases take turns, length accesses each, until accesses accesses have been generated.
+ *
+ *   pattern   seq (stride through the region, wrapping around), stride (the same with a 64 byte
+ *             default stride), uniform, zipf (element k is chosen with probability proportional
+ *             to 1 / k^alpha, so the hot set is at the start of the region) or chase (every
+ *             element once in a random order, then again in the same order, as a pointer chase
+ *             round a random cycle would)
+ *   size      bytes in the region the phase accesses, default 1M
+ *   stride    bytes per element, default 8 for seq and 64 otherwise
+ *   alpha     zipf exponent, default 0.99
+ *   writes    fraction of accesses that are writes, default 0
+ *   base      hex start address of the region, by default each phase gets its own
+ *   length    accesses before the next phase takes over, default 1M
+ *   accesses  accesses in the whole trace, default 10M, for any phase
+ *   seed      seed of the generator, default 1, for any phase
+ * Sizes and counts take a K, M or G suffix (powers of 1024 for sizes, of 1000 for counts).
+ *
+ * Accesses are generated in batches with one pattern loop per phase and a splitmix64 generator,
+ * which keeps the cost to a few nanoseconds per access. zipf picks the element from a table of
+ * ZIPF_QUANTILES quantiles of the distribution, uniformly within a quantile, which is exact for
+ * the hot elements that fill a quantile on their own. chase numbers its steps and maps each step
+ * through a seeded permutation of the elements instead of following a table of successors, so
+ * generating it does not itself miss in the host's caches.
+ */
+class WorkloadGenerator {
+    static final String PREFIX = "gen:";
+    static final int BATCH = 4096;
+    static final int ZIPF_QUANTILES = 1 << 16;
+    // zipf keeps a table over the elements
+    static final long MAX_ZIPF_ELEMENTS = 1 << 24;
+
+    static final int SEQ = 0;
+    static final int UNIFORM = 1;
+    static final int ZIPF = 2;
+    static final int CHASE = 3;
+
+    static class Phase {
+        int pattern;
+        long base;
+        long size;
+        long stride;
+        long elements;
+        double alpha;
+        // writes when the low 32 bits of a random number are below this
+        long writeThreshold;
+        long length;
+
+        // byte offset of seq, step of chase
+        long offset;
+        int[] zipfQuantiles;
+        // chase permutes the numbers below 2^chaseBits and skips those that are not elements
+        int chaseBits;
+        long chaseKey;
+    }
+
+    Phase[] phases;
+    long accesses;
+    long remaining;
+    int phase;
+    long phaseRemaining;
+    long random;
+    // the generator state once the phases are set up, where restart() begins again
+    long startRandom;
+
+    private final byte[] ops = new byte[BATCH];
+    private final long[] addresses = new long[BATCH];
+    private int pos;
+    private int limit;
+
+    // the access generated by the last successful next()
+    char op;
+    long address;
+
+    static boolean isGenerator(String traceFile) {
+        return traceFile.startsWith(PREFIX);
+    }
+
+    static WorkloadGenerator parse(String traceFile) {
+        String spec = traceFile.startsWith(PREFIX) ? traceFile.substring(PREFIX.length()) : traceFile;
+        WorkloadGenerator generator = new WorkloadGenerator();
+        generator.accesses = 10000000;
+        long seed = 1;
+
+        List<Phase> phases = new ArrayList<Phase>();
+        for (String segment : spec.split("/")) {
+            Phase phase = new Phase();
+            phase.pattern = -1;
+            phase.size = 1 << 20;
+            phase.stride = -1;
+            phase.alpha = 0.99;
+            phase.length = 1000000;
+            phase.base = 0x10000000L * (phases.size() + 1);
+            for (String pair : segment.split(",")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                String[] fields = pair.split("=");
+                String key = fields.length == 1 ? "pattern" : fields[0];
+                String value = fields[fields.length - 1];
+                if (fields.length > 2) {
+                    throw new IllegalArgumentException("unrecognized workload parameter " + pair);
+                }
+                if (key.equals("pattern")) {
+                    phase.pattern = parsePattern(value);
+                    if (phase.stride < 0 && value.equals("seq")) {
+                        phase.stride = 8;
+                    }
+                } else if (key.equals("size")) {
+                    phase.size = parseCount(value, 1024);
+                } else if (key.equals("stride")) {
+                    phase.stride = parseCount(value, 1024);
+                } else if (key.equals("alpha")) {
+                    phase.alpha = Double.parseDouble(value);
+                } else if (key.equals("writes")) {
+                    double writes = Double.parseDouble(value);
+                    if (writes < 0 || writes > 1) {
+                        throw new IllegalArgumentException("workload parameter " + pair + " is out of range");
+                    }
+                    phase.writeThreshold = (long) (writes * (1L << 32));
+                } else if (key.equals("base")) {
+                    phase.base = Long.parseUnsignedLong(value.startsWith("0x") ? value.substring(2) : value, 16);
+                } else if (key.equals("length")) {
+                    phase.length = parseCount(value, 1000);
+                } else if (key.equals("accesses")) {
+                    generator.accesses = parseCount(value, 1000);
+                } else if (key.equals("seed")) {
+                    seed = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("unrecognized workload parameter " + pair);
+                }
+            }
+            if (phase.pattern < 0) {
+                // a segment of only accesses or seed belongs to the whole workload
+                continue;
+            }
+            if (phase.stride < 0) {
+                phase.stride = 64;
+            }
+            if (phase.stride < 1 || phase.size < phase.stride || phase.length < 1) {
+                throw new IllegalArgumentException("workload phase " + segment
+                        + " needs 1 <= stride <= size and length >= 1");
+            }
+            phase.elements = phase.size / phase.stride;
+            phases.add(phase);
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException("workload " + traceFile + " has no pattern");
+        }
+
+        generator.phases = phases.toArray(new Phase[0]);
+        generator.random = seed;
+        for (Phase phase : generator.phases) {
+            if (phase.pattern == ZIPF) {
+                phase.zipfQuantiles = zipfQuantiles(phase.elements, phase.alpha);
+            } else if (phase.pattern == CHASE) {
+                phase.chaseBits = 64 - Long.numberOfLeadingZeros(phase.elements - 1);
+                phase.chaseKey = generator.nextRandom();
+            }
+        }
+        generator.startRandom = generator.random;
+        generator.restart();
+        return generator;
+    }
+
+    /**
+     * Starts the same sequence of accesses again, without rebuilding the phases' tables.
+     */
+    void restart() {
+        this.random = this.startRandom;
+        for (Phase phase : this.phases) {
+            phase.offset = 0;
+        }
+        this.remaining = this.accesses;
+        this.phase = 0;
+        this.phaseRemaining = this.phases[0].length;
+        this.pos = 0;
+        this.limit = 0;
+    }
+
+    private static int parsePattern(String name) {
+        if (name.equals("seq") || name.equals("stride")) {
+            return SEQ;
+        } else if (name.equals("uniform")) {
+            return UNIFORM;
+        } else if (name.equals("zipf")) {
+            return ZIPF;
+        } else if (name.equals("chase")) {
+            return CHASE;
+        }
+        throw new IllegalArgumentException("unknown workload pattern " + name);
+    }
+
+    private static long parseCount(String value, long unit) {
+        char suffix = Character.toUpperCase(value.charAt(value.length() - 1));
+        int power = suffix == 'K' ? 1 : suffix == 'M' ? 2 : suffix == 'G' ? 3 : 0;
+        long count = Long.parseLong(power > 0 ? value.substring(0, value.length() - 1) : value);
+        for (int i = 0; i < power; i++) {
+            count *= unit;
+        }
+        return count;
+    }
+
+    /**
+     * q[j] is the first element whose cumulative probability reaches j / ZIPF_QUANTILES.
+     */
+    private static int[] zipfQuantiles(long elements, double alpha) {
+        if (elements > MAX_ZIPF_ELEMENTS) {
+            throw new IllegalArgumentException("zipf supports at most " + MAX_ZIPF_ELEMENTS + " elements");
+        }
+        int n = (int) elements;
+        double total = 0;
+        for (int k = 1; k <= n; k++) {
+            total += Math.pow(k, -alpha);
+        }
+        int[] quantiles = new int[ZIPF_QUANTILES + 1];
+        double cumulative = 0;
+        int j = 0;
+        for (int k = 1; k <= n && j <= ZIPF_QUANTILES; k++) {
+            cumulative += Math.pow(k, -alpha);
+            // element k - 1 covers the quantiles its probability mass reaches
+            while (j <= ZIPF_QUANTILES && cumulative >= total * j / ZIPF_QUANTILES) {
+                quantiles[j++] = k - 1;
+            }
+        }
+        while (j <= ZIPF_QUANTILES) {
+            quantiles[j++] = n - 1;
+        }
+        return quantiles;
+    }
+
+    /**
+     * A bijection of the numbers below 2^bits chosen by key: multiplying by an odd number, adding
+     * and shifting the high bits down into the low ones are each invertible modulo 2^bits.
+     */
+    private static long permute(long x, int bits, long key) {
+        long mask = (1L << bits) - 1;
+        int shift = (bits + 1) / 2;
+        x = (x * 0x9E3779B97F4A7C15L + key) & mask;
+        x ^= x >>> shift;
+        x = (x * 0xBF58476D1CE4E5B9L) & mask;
+        x ^= x >>> shift;
+        x = (x * 0x94D049BB133111EBL + (key >>> 32)) & mask;
+        return x ^ (x >>> shift);
+    }
+
+    private long nextRandom() {
+        long z = (this.random += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Generates the next access into op and address, returns false once every access has been
+     * generated.
+     */
+    boolean next() {
+        if (this.pos == this.limit) {
+            this.limit = fill(this.ops, this.addresses, 0, BATCH);
+            this.pos = 0;
+            if (this.limit == 0) {
+                return false;
+            }
+        }
+        this.op = (char) this.ops[this.pos];
+        this.address = this.addresses[this.pos++];
+        return true;
+    }
+
+    /**
+     * Generates up to n accesses into ops and addresses from offset, returns how many.
+     */
+    int fill(byte[] ops, long[] addresses, int offset, int n) {
+        int generated = 0;
+        while (generated < n && this.remaining > 0) {
+            Phase phase = this.phases[this.phase];
+            int count = (int) Math.min(n - generated, Math.min(this.remaining, this.phaseRemaining));
+            int from = offset + generated;
+            generateAddresses(phase, addresses, from, count);
+            generateOps(phase, ops, from, count);
+            generated += count;
+            this.remaining -= count;
+            this.phaseRemaining -= count;
+            if (this.phaseRemaining == 0) {
+                this.phase = (this.phase + 1) % this.phases.length;
+                this.phaseRemaining = this.phases[this.phase].length;
+            }
+        }
+        return generated;
+    }
+
+    private void generateAddresses(Phase phase, long[] addresses, int from, int count) {
+        int to = from + count;
+        long base = phase.base;
+        long stride = phase.stride;
+        if (phase.pattern == SEQ) {
+            long offset = phase.offset;
+            long span = phase.elements * stride;
+            for (int i = from; i < to; i++) {
+                addresses[i] = base + offset;
+                offset += stride;
+                if (offset >= span) {
+                    offset = 0;
+                }
+            }
+            phase.offset = offset;
+        } else if (phase.pattern == UNIFORM) {
+            long elements = phase.elements;
+            for (int i = from; i < to; i++) {
+                addresses[i] = base + Math.multiplyHigh(nextRandom() >>> 1, elements << 1) * stride;
+            }
+        } else if (phase.pattern == ZIPF) {
+            int[] quantiles = phase.zipfQuantiles;
+            for (int i = from; i < to; i++) {
+                long r = nextRandom();
+                int j = (int) (r >>> 48);
+                int low = quantiles[j];
+                int width = quantiles[j + 1] - low + 1;
+                // uniform within the quantile from the next 32 bits
+                long element = low + (((r >>> 16) & 0xFFFFFFFFL) * width >>> 32);
+                addresses[i] = base + element * stride;
+            }
+        } else {
+            long elements = phase.elements;
+            int bits = phase.chaseBits;
+            long key = phase.chaseKey;
+            long mask = (1L << bits) - 1;
+            long step = phase.offset;
+            for (int i = from; i < to; i++) {
+                long element;
+                do {
+                    // fewer than half the numbers below 2^bits are not elements
+                    element = permute(step, bits, key);
+                    step = (step + 1) & mask;
+                } while (element >= elements);
+                addresses[i] = base + element * stride;
+            }
+            phase.offset = step;
+        }
+    }
+
+    private void generateOps(Phase phase, byte[] ops, int from, int count) {
+        long threshold = phase.writeThreshold;
+        if (threshold == 0) {
+            Arrays.fill(ops, from, from + count, (byte) 'r');
+            return;
+        }
+        for (int i = from; i < from + count; i += 2) {
+            // one random number decides two accesses
+            long r = nextRandom();
+            ops[i] = (r & 0xFFFFFFFFL) < threshold ? (byte) 'w' : (byte) 'r';
+            if (i + 1 < from + count) {
+                ops[i + 1] = (r >>> 32) < threshold ? (byte) 'w' : (byte) 'r';
+            }
+        }
+    }
+}
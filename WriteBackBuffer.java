@@ -0,0 +1,93 @@
+/**
+ * A bounded FIFO of dirty blocks on their way from L1 to L2. A writeback to a block that is
+ * already waiting coalesces with it, and the oldest block drains to L2 only when the buffer is
+ * full. An L1 miss to a waiting block is served from the buffer instead of L2, and the entry
+ * stays queued, so the block comes back into L1 clean and its next writeback coalesces.
+ */
+class WriteBackBuffer {
+    int entries;
+    // index 0 is the oldest entry
+    long[] addresses;
+    long[] positions;
+    int count;
+
+    // reusable holder for the block drained by the last add or drainOldest
+    Block drained;
+
+    long writes;
+    long coalesced;
+    long drains;
+    long readHits;
+
+    public WriteBackBuffer(int entries) {
+        if (entries < 1) {
+            throw new IllegalArgumentException("a write-back buffer needs at least one entry");
+        }
+        this.entries = entries;
+        this.addresses = new long[entries];
+        this.positions = new long[entries];
+        this.count = 0;
+        this.drained = new Block();
+    }
+
+    int find(long address) {
+        for (int i = 0; i < this.count; i++) {
+            if (this.addresses[i] == address) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Queues a writeback. The returned block is valid if the oldest entry drained to make room.
+     */
+    Block add(long address, long position) {
+        this.writes++;
+        this.drained.valid = false;
+
+        int entry = find(address);
+        if (entry != -1) {
+            this.coalesced++;
+            this.positions[entry] = Math.max(this.positions[entry], position);
+            return this.drained;
+        }
+        if (this.count == this.entries) {
+            this.drains++;
+            drainOldest();
+        }
+        this.addresses[this.count] = address;
+        this.positions[this.count] = position;
+        this.count++;
+        return this.drained;
+    }
+
+    /**
+     * Returns whether the block an L1 miss asks for is waiting here, in which case the buffer
+     * supplies it.
+     */
+    boolean forward(long address) {
+        if (find(address) == -1) {
+            return false;
+        }
+        this.readHits++;
+        return true;
+    }
+
+    /**
+     * Moves the oldest entry into drained, which is left invalid if the buffer is empty.
+     */
+    Block drainOldest() {
+        this.drained.valid = false;
+        if (this.count > 0) {
+            this.drained.valid = true;
+            this.drained.dirty = true;
+            this.drained.address = this.addresses[0];
+            this.drained.position = this.positions[0];
+            System.arraycopy(this.addresses, 1, this.addresses, 0, this.count - 1);
+            System.arraycopy(this.positions, 1, this.positions, 0, this.count - 1);
+            this.count--;
+        }
+        return this.drained;
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.SplittableRandom;
+
+import cachesim.bench.SimulatorDriver;
+
+/**
+ * Gives the benchmarks in cachesim.bench access to the simulator classes in the unnamed package.
+ */
+public class BenchmarkDriver implements SimulatorDriver {
+    private Trace trace;
+
+    // L1 on its own, with every access decoded up front
+    private int blockSize;
+    private int size;
+    private int assoc;
+    private int policy;
+    private NextUseIndex nextUse;
+    private char[] ops;
+    private int[] sets;
+    private long[] tags;
+    private long[] addresses;
+
+    // whole hierarchy
+    private int l1Size;
+    private int l1Assoc;
+    private int l2Size;
+    private int l2Assoc;
+    private int inclusion;
+
+    private WorkloadGenerator generator;
+    private final byte[] generatedOps = new byte[WorkloadGenerator.BATCH];
+    private final long[] generatedAddresses = new long[WorkloadGenerator.BATCH];
+
+    private SimulationServer server;
+    private SimulationClient client;
+    private int serverHierarchy;
+
+    private File textFile;
+    private File addressFile;
+    private File actionFile;
+    private File binaryFile;
+
+    public BenchmarkDriver() {
+    }
+
+    @Override
+    public void loadWorkload(String name) throws IOException {
+        Trace loaded;
+        if (name.equals("synthetic")) {
+            loaded = synthetic(WORKLOAD_ACCESSES, 42);
+        } else if (WorkloadGenerator.isGenerator(name)) {
+            WorkloadGenerator generator = WorkloadGenerator.parse(name);
+            loaded = new Trace(WORKLOAD_ACCESSES);
+            while (loaded.size < WORKLOAD_ACCESSES && generator.next()) {
+                loaded.add((byte) generator.op, generator.address);
+            }
+        } else {
+            File dir = SimulatorDriver.tracesDirectory();
+            loaded = Trace.readSplit(new File(dir, name + "_trace_addresses.txt").getPath(),
+                    new File(dir, name + "_trace_actions.txt").getPath());
+        }
+        if (loaded.size < WORKLOAD_ACCESSES) {
+            throw new IllegalStateException(name + " has only " + loaded.size + " accesses");
+        }
+        loaded.size = WORKLOAD_ACCESSES;
+        this.trace = loaded;
+    }
+
+    /**
+     * A mix of a hot 16KB region, a sequential stream and random accesses over 16MB, with 30% writes.
+     */
+    static Trace synthetic(int accesses, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Trace trace = new Trace(accesses);
+        long stream = 0x10000000L;
+        for (int i = 0; i < accesses; i++) {
+            int kind = random.nextInt(10);
+            long address;
+            if (kind < 6) {
+                address = 0x40000000L + random.nextInt(16 << 10);
+            } else if (kind < 9) {
+                address = stream;
+                stream += 8;
+            } else {
+                address = 0x7b000000L + random.nextInt(16 << 20);
+            }
+            trace.add(random.nextInt(10) < 3 ? (byte) 'w' : (byte) 'r', address & ~3L);
+        }
+        return trace;
+    }
+
+    @Override
+    public void prepareLevel(int blockSize, int size, int assoc, String policy) {
+        this.blockSize = blockSize;
+        this.size = size;
+        this.assoc = assoc;
+        this.policy = sim_cache.parseReplacementPolicy(policy);
+        this.nextUse = this.policy == ReplacementPolicy.OPTIMAL ? new NextUseIndex(this.trace, blockSize) : null;
+
+        AddressDecoder decoder = new AddressDecoder(blockSize, size / (blockSize * assoc));
+        this.ops = new char[this.trace.size];
+        this.sets = new int[this.trace.size];
+        this.tags = new long[this.trace.size];
+        this.addresses = new long[this.trace.size];
+        for (int i = 0; i < this.trace.size; i++) {
+            long address = decoder.blockAlign(this.trace.addresses[i]);
+            this.ops[i] = (char) this.trace.ops[i];
+            this.sets[i] = decoder.set(address);
+            this.tags[i] = decoder.tag(address);
+            this.addresses[i] = address;
+        }
+    }
+
+    @Override
+    public long runLevel() {
+        CacheLevel level = new CacheLevel(this.assoc, this.size, this.blockSize, this.policy, this.nextUse);
+        for (int i = 0; i < this.ops.length; i++) {
+            level.performOperation(this.ops[i], this.sets[i], this.tags[i], this.addresses[i]);
+            level.counter++;
+        }
+        return level.readMisses + level.writeMisses;
+    }
+
+    @Override
+    public void prepareHierarchy(int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc, String policy,
+            String inclusion) {
+        this.blockSize = blockSize;
+        this.l1Size = l1Size;
+        this.l1Assoc = l1Assoc;
+        this.l2Size = l2Size;
+        this.l2Assoc = l2Assoc;
+        this.policy = sim_cache.parseReplacementPolicy(policy);
+        this.inclusion = sim_cache.parseInclusionProperty(inclusion);
+        this.nextUse = this.policy == ReplacementPolicy.OPTIMAL ? new NextUseIndex(this.trace, blockSize) : null;
+    }
+
+    @Override
+    public long runHierarchy() {
+        OverallCache cache = sim_cache.createCache(this.blockSize, this.l1Size, this.l1Assoc, this.l2Size,
+                this.l2Assoc, this.policy, this.inclusion, this.nextUse);
+        cache.simulate(this.trace);
+        return cache.memoryTraffic();
+    }
+
+    @Override
+    public void prepareGenerator(String spec) {
+        this.generator = WorkloadGenerator.parse(spec);
+    }
+
+    @Override
+    public long generate() {
+        WorkloadGenerator generator = this.generator;
+        generator.restart();
+        long checksum = 0;
+        int remaining = WORKLOAD_ACCESSES;
+        while (remaining > 0) {
+            int n = generator.fill(this.generatedOps, this.generatedAddresses, 0,
+                    Math.min(remaining, WorkloadGenerator.BATCH));
+            if (n == 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                checksum += this.generatedAddresses[i] + this.generatedOps[i];
+            }
+            remaining -= n;
+        }
+        return checksum;
+    }
+
+    @Override
+    public long runGenerated() {
+        WorkloadGenerator generator = this.generator;
+        generator.restart();
+        OverallCache cache = sim_cache.createCache(this.blockSize, this.l1Size, this.l1Assoc, this.l2Size,
+                this.l2Assoc, this.policy, this.inclusion, null);
+        for (int i = 0; i < WORKLOAD_ACCESSES && generator.next(); i++) {
+            cache.access(generator.op, generator.address);
+        }
+        return cache.memoryTraffic();
+    }
+
+    @Override
+    public void startServer() throws IOException {
+        this.server = new SimulationServer(0);
+        this.server.start();
+        this.client = new SimulationClient(this.server.port());
+        this.serverHierarchy = this.client.create(this.blockSize, this.l1Size, this.l1Assoc, this.l2Size,
+                this.l2Assoc, ReplacementPolicy.NAMES[this.policy], sim_cache.INCLUSION_NAMES[this.inclusion]);
+    }
+
+    @Override
+    public long runServer(int batch) throws IOException {
+        this.client.reset(this.serverHierarchy);
+        for (int from = 0; from < this.trace.size; from += batch) {
+            this.client.access(this.serverHierarchy, this.trace.ops, this.trace.addresses, from,
+                    Math.min(this.trace.size, from + batch));
+        }
+        long[] counters = this.client.counters(this.serverHierarchy);
+        return counters[counters.length - 1];
+    }
+
+    @Override
+    public void stopServer() throws IOException {
+        this.client.close();
+        this.server.close();
+    }
+
+    @Override
+    public void prepareParsing() throws IOException {
+        this.textFile = File.createTempFile("trace", ".txt");
+        this.addressFile = File.createTempFile("trace", "_addresses.txt");
+        this.actionFile = File.createTempFile("trace", "_actions.txt");
+        this.binaryFile = File.createTempFile("trace", ".bin");
+        for (File file : new File[] { this.textFile, this.addressFile, this.actionFile, this.binaryFile }) {
+            file.deleteOnExit();
+        }
+
+        try (PrintWriter text = new PrintWriter(this.textFile);
+                PrintWriter addresses = new PrintWriter(this.addressFile);
+                PrintWriter actions = new PrintWriter(this.actionFile)) {
+            for (int i = 0; i < this.trace.size; i++) {
+                char op = (char) this.trace.ops[i];
+                text.println(op + " " + Long.toHexString(this.trace.addresses[i]));
+                addresses.printf("%012x%n", this.trace.addresses[i]);
+                actions.println(op == 'w' ? "57" : "52");
+            }
+        }
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(new FileOutputStream(this.binaryFile), this.trace.size,
+                0)) {
+            writer.addAll(this.trace);
+        }
+    }
+
+    @Override
+    public int parseText() throws IOException {
+        return Trace.read(this.textFile.getPath()).size;
+    }
+
+    @Override
+    public int parseSplit() throws IOException {
+        return Trace.readSplit(this.addressFile.getPath(), this.actionFile.getPath()).size;
+    }
+
+    @Override
+    public int parseBinary() throws IOException {
+        return Trace.read(this.binaryFile.getPath()).size;
+    }
+}
@@ -0,0 +1,53 @@
+package cachesim.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accesses per second through CacheLevel.performOperation for an 8KB L1 with 32 byte blocks.
+ * The 64-way configuration stands in for the high associativity cases the traces can't stress.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheLevelBenchmark {
+    @Param({ "compress", "gcc", "go", "perl", "vortex", "synthetic" })
+    public String workload;
+
+    @Param({ "4", "16", "64" })
+    public int assoc;
+
+    @Param({ "LRU", "FIFO", "optimal", "MRU", "LIFO", "PLRU", "SRRIP", "DRRIP", "random" })
+    public String policy;
+
+    private SimulatorDriver driver;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.driver = SimulatorDriver.create();
+        this.driver.loadWorkload(this.workload);
+        this.driver.prepareLevel(32, 8192, this.assoc, this.policy);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SimulatorDriver.WORKLOAD_ACCESSES)
+    public long performOperation() {
+        return this.driver.runLevel();
+    }
+}
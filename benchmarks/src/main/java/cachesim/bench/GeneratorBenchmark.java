@@ -0,0 +1,54 @@
+package cachesim.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accesses per second produced by the WorkloadGenerator patterns on their own, and streamed
+ * straight into an L1/L2 hierarchy of the README without a trace in between.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+    @Param({ "gen:seq", "gen:stride", "gen:uniform;size=16M", "gen:zipf;size=16M;writes=0.3",
+            "gen:chase;size=16M", "gen:zipf/seq/chase;length=10K" })
+    public String spec;
+
+    private SimulatorDriver driver;
+
+    @Setup
+    public void setUp() {
+        this.driver = SimulatorDriver.create();
+        // JMH splits -p values at commas, so the params separate keys with semicolons
+        this.driver.prepareGenerator(this.spec.replace(';', ','));
+        this.driver.prepareHierarchy(32, 4096, 2, 16384, 16, "LRU", "non-inclusive");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SimulatorDriver.WORKLOAD_ACCESSES)
+    public long generate() {
+        return this.driver.generate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SimulatorDriver.WORKLOAD_ACCESSES)
+    public long simulate() {
+        return this.driver.runGenerated();
+    }
+}
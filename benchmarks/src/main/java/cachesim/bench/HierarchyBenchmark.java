@@ -0,0 +1,60 @@
+package cachesim.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accesses per second through OverallCache.startOperation, including address decoding, for the
+ * two L1/L2 configurations studied in the README and a high associativity one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchyBenchmark {
+    @Param({ "compress", "gcc", "go", "perl", "vortex", "synthetic" })
+    public String workload;
+
+    // BLOCKSIZE:L1_SIZE:L1_ASSOC:L2_SIZE:L2_ASSOC
+    @Param({ "32:1024:4:4096:8", "32:4096:2:16384:16", "64:32768:32:262144:64" })
+    public String config;
+
+    @Param({ "non-inclusive", "inclusive" })
+    public String inclusion;
+
+    @Param({ "LRU", "FIFO" })
+    public String policy;
+
+    private SimulatorDriver driver;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] fields = this.config.split(":");
+        this.driver = SimulatorDriver.create();
+        this.driver.loadWorkload(this.workload);
+        this.driver.prepareHierarchy(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), this.policy,
+                this.inclusion);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SimulatorDriver.WORKLOAD_ACCESSES)
+    public long startOperation() {
+        return this.driver.runHierarchy();
+    }
+}
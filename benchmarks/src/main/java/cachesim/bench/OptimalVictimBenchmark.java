@@ -0,0 +1,50 @@
+package cachesim.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Optimal victim selection, on a single fully associative set so that almost every access misses
+ * and has to pick a victim among all the ways.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimalVictimBenchmark {
+    @Param({ "gcc", "synthetic" })
+    public String workload;
+
+    @Param({ "16", "64", "256" })
+    public int assoc;
+
+    private SimulatorDriver driver;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.driver = SimulatorDriver.create();
+        this.driver.loadWorkload(this.workload);
+        this.driver.prepareLevel(32, 32 * this.assoc, this.assoc, "optimal");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SimulatorDriver.WORKLOAD_ACCESSES)
+    public long selectVictims() {
+        return this.driver.runLevel();
+    }
+}
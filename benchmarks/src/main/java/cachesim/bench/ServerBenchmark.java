@@ -0,0 +1,57 @@
+package cachesim.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accesses per second sent through a SimulationClient to a SimulationServer over loopback, for
+ * several batch sizes, to compare with HierarchyBenchmark's in-process rate for the same config.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark {
+    @Param({ "gcc", "synthetic" })
+    public String workload;
+
+    @Param({ "64", "1024", "16384" })
+    public int batch;
+
+    private SimulatorDriver driver;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.driver = SimulatorDriver.create();
+        this.driver.loadWorkload(this.workload);
+        this.driver.prepareHierarchy(32, 4096, 2, 16384, 16, "LRU", "non-inclusive");
+        this.driver.startServer();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.driver.stopServer();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SimulatorDriver.WORKLOAD_ACCESSES)
+    public long session() throws IOException {
+        return this.driver.runServer(this.batch);
+    }
+}
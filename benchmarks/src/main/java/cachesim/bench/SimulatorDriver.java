@@ -0,0 +1,92 @@
+package cachesim.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The simulator classes live in the unnamed package, which code in a named package cannot refer
+ * to, and JMH will not generate benchmarks in the unnamed package. The benchmarks therefore drive
+ * the simulator through this interface, implemented by BenchmarkDriver in the unnamed package.
+ */
+public interface SimulatorDriver {
+    /** Every workload is cut to this many accesses so results can be reported per access. */
+    int WORKLOAD_ACCESSES = 100000;
+
+    /**
+     * Loads one of the rtl/traces workloads (compress, gcc, go, perl, vortex), generates the
+     * "synthetic" one or takes the first accesses of a "gen:<spec>" WorkloadGenerator.
+     */
+    void loadWorkload(String name) throws IOException;
+
+    /** Builds an L1 on its own, with the workload decoded ahead of time for runLevel. */
+    void prepareLevel(int blockSize, int size, int assoc, String policy);
+
+    /** Runs the workload through a fresh CacheLevel.performOperation loop, returns the misses. */
+    long runLevel();
+
+    void prepareHierarchy(int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc, String policy,
+            String inclusion);
+
+    /** Runs the workload through a fresh OverallCache, returns the memory traffic. */
+    long runHierarchy();
+
+    /** Sets up a WorkloadGenerator spec for generate and runGenerated, which ignore the loaded workload. */
+    void prepareGenerator(String spec);
+
+    /** Generates WORKLOAD_ACCESSES accesses of the spec from the start, returns a checksum. */
+    long generate();
+
+    /**
+     * Streams WORKLOAD_ACCESSES generated accesses into a fresh hierarchy of the last
+     * prepareHierarchy, returns the memory traffic.
+     */
+    long runGenerated();
+
+    /**
+     * Starts a SimulationServer in this JVM, connects to it and creates a hierarchy of the last
+     * prepareHierarchy there.
+     */
+    void startServer() throws IOException;
+
+    /**
+     * Resets the server's hierarchy and sends it the workload in batches of batch accesses,
+     * returns the memory traffic.
+     */
+    long runServer(int batch) throws IOException;
+
+    void stopServer() throws IOException;
+
+    /** Writes the workload to temporary text, split and binary trace files for the parse methods. */
+    void prepareParsing() throws IOException;
+
+    int parseText() throws IOException;
+
+    int parseSplit() throws IOException;
+
+    int parseBinary() throws IOException;
+
+    static SimulatorDriver create() {
+        try {
+            return (SimulatorDriver) Class.forName("BenchmarkDriver").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkDriver is missing from the classpath", e);
+        }
+    }
+
+    /**
+     * The rtl/traces directory, from -Dcachesim.traces or searched for from the working directory.
+     */
+    static File tracesDirectory() {
+        String configured = System.getProperty("cachesim.traces");
+        if (configured != null) {
+            return new File(configured);
+        }
+        for (String candidate : new String[] { "rtl/traces", "../rtl/traces" }) {
+            File dir = new File(candidate);
+            if (dir.isDirectory()) {
+                return dir;
+            }
+        }
+        throw new IllegalStateException("cannot find rtl/traces, run from the repository or set -Dcachesim.traces");
+    }
+}
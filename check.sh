@@ -0,0 +1,50 @@
+#!/bin/sh
+# Checks the results the simulator promises to reproduce exactly, on the rtl/traces workloads:
+# -threads must print the same report, cache contents included, as the sequential sim_cache run,
+# and MissStream replay the same report as a full non-inclusive sim_cache run. Run by "make check"
+# after the classes are built, and exits non-zero if any report differs.
+
+dir=$(mktemp -d)
+trap 'rm -rf "$dir"' EXIT
+runs=0
+failures=0
+
+# compares the report of the command after the label with the reference in $dir/expected
+compare() {
+    label=$1
+    shift
+    runs=$((runs + 1))
+    if ! "$@" > "$dir/actual" || ! cmp -s "$dir/expected" "$dir/actual"; then
+        failures=$((failures + 1))
+        echo "FAILED: $label"
+        diff "$dir/expected" "$dir/actual" | head -10
+    fi
+}
+
+for workload in compress gcc go perl vortex; do
+    trace=$dir/$workload.bin
+    java TraceConverter rtl rtl/traces/${workload}_trace_addresses.txt rtl/traces/${workload}_trace_actions.txt \
+        "$trace" > /dev/null || exit 1
+
+    # BRRIP and DRRIP share their insertion counters between sets and cannot be sharded
+    for policy in LRU FIFO optimal MRU LIFO PLRU SRRIP; do
+        for inclusion in non-inclusive inclusive exclusive; do
+            config="32 1024 2 8192 4 $policy $inclusion"
+            java sim_cache $config "$trace" -contents > "$dir/expected" || exit 1
+            compare "$workload $config -threads 4" java sim_cache $config "$trace" -threads 4 -contents
+        done
+    done
+
+    # optimal replacement cannot be captured
+    for policy in LRU FIFO MRU LIFO PLRU SRRIP; do
+        java MissStream capture 32 1024 2 $policy "$trace" "$dir/misses" 2> /dev/null || exit 1
+        for l2 in "4096 4" "16384 8"; do
+            config="32 1024 2 $l2 $policy non-inclusive"
+            java sim_cache $config "$trace" -contents > "$dir/expected" || exit 1
+            compare "$workload $config MissStream replay" java MissStream replay "$dir/misses" $l2 -contents
+        done
+    done
+done
+
+echo "$runs checks, $failures failed"
+[ "$failures" -eq 0 ]
@@ -1,398 +1,717 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Scanner;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 class Block {
-    int tag;
-    int address;
+    long tag;
+    long address;
     boolean dirty;
     boolean valid;
+    // trace position of the last known reference to this block, used by optimal replacement
+    long position;
 
     public Block() {
         tag = 0;
         address = 0;
+        position = 0;
         dirty = true;
         valid = false;
     }
 }
 
+/**
+ * Next-occurrence table for the block-address trace, built with a single backwards pass.
+ * next[i] is the position of the next reference to the same block after position i, or size
+ * if the block is never referenced again.
+ */
+class NextUseIndex {
+    int size;
+    int[] next;
+
+    public NextUseIndex(Trace trace, int blockSize) {
+        this.size = trace.size;
+        this.next = new int[this.size];
+
+        // block address -> most recent position seen walking backwards
+        LongIntMap lastSeen = new LongIntMap(1 << 16);
+        for (int i = this.size - 1; i >= 0; i--) {
+            long key = Long.divideUnsigned(trace.addresses[i], blockSize);
+            this.next[i] = lastSeen.get(key, this.size);
+            lastSeen.put(key, i);
+        }
+    }
+
+    /**
+     * Returns the first reference at or after counter to the block referenced at position, by
+     * following the chain of next references.
+     */
+    long nextUseFrom(long position, long counter) {
+        while (position < counter) {
+            position = this.next[(int) position];
+        }
+        return position;
+    }
+}
+
 class CacheLevel {
     long cacheSize;
     int blockSize;
     int associativity;
     int numSets;
-    ArrayList<LinkedList<Integer>> tagArray;
-    ArrayList<LinkedList<Block>> blockArray;
-    ArrayList<Integer> allTraces;
-    int replacementPolicy; // 1 = lru, 2 = fifo, 3 = optimal
-
-    int reads;
-    int readMisses;
-    int writes;
-    int writeMisses;
-    int writebacks;
-    int counter;
-
-    // int misses;
-    // int hits;
-    // int writes;
-    // int reads;
-
-    public CacheLevel(int assoc, long size, int block, int replacement, ArrayList<Integer> allTraces) {
+    AddressDecoder decoder;
+    NextUseIndex nextUse;
+    int replacementPolicy; // a ReplacementPolicy code, 1 = lru, 2 = fifo, 3 = optimal, 4 = mru, 5 = lifo, ...
+    ReplacementPolicy policy;
+
+    // flat storage, every array is indexed by set * associativity + way
+    long[] tags;
+    long[] addresses;
+    boolean[] valid;
+    boolean[] dirty;
+    // a trace position at which each block is referenced, advanced lazily by optimal replacement
+    long[] positions;
+    // order of the ways kept by the replacement policy, a higher stamp is closer to the front of the set
+    long[] stamps;
+    long clock;
+    // number of ways filled in each set, ways are always filled from 0 upwards
+    int[] setFill;
+    // blocks filled by a prefetch and not demanded since, and when each prefetch was issued
+    boolean[] prefetched;
+    long[] prefetchTimes;
+
+    // reusable holder for the block evicted by the last performOperation call
+    Block evicted;
+
+    // optional per-set and reuse distance instrumentation, null when disabled
+    LevelStatistics statistics;
+    // optional prefetcher trained on this level's demand accesses, null when disabled
+    Prefetcher prefetcher;
+
+    // outcome of the last performOperation or lookup, for the prefetchers
+    boolean lastHit;
+    boolean lastPrefetchHit;
+
+    long reads;
+    long readMisses;
+    long writes;
+    long writeMisses;
+    long writebacks;
+    // blocks removed because the level below evicted them, and the dirty ones among them, which
+    // go straight to memory
+    long invalidations;
+    long invalidationWritebacks;
+    // prefetch fills into this level, those later demanded (late if demanded within
+    // Prefetcher.LATE_WINDOW accesses), those evicted or invalidated unused, and demand-filled blocks
+    // a prefetch fill evicted
+    long prefetchesIssued;
+    long usefulPrefetches;
+    long latePrefetches;
+    long uselessPrefetches;
+    long pollutionEvictions;
+    // requests from the prefetcher of the level above, kept out of the demand reads
+    long prefetchReads;
+    long prefetchReadMisses;
+    long counter;
+
+    public CacheLevel(int assoc, long size, int block, int replacement, NextUseIndex nextUse) {
         this.cacheSize = size;
         this.blockSize = block;
         this.associativity = assoc;
         this.replacementPolicy = replacement;
-        // this.misses = 0;
-        // this.hits = 0;
         this.writes = 0;
         this.reads = 0;
         this.readMisses = 0;
         this.writeMisses = 0;
-        this.allTraces = allTraces;
+        this.nextUse = nextUse;
         this.counter = 0;
 
         this.numSets = (int) (this.cacheSize / (long) (this.blockSize * this.associativity));
-        this.tagArray = new ArrayList<LinkedList<Integer>>();
-        this.blockArray = new ArrayList<LinkedList<Block>>();
-
-        for (int i = 0; i < this.numSets; i++) {
-            this.tagArray.add(new LinkedList<Integer>());
-            this.blockArray.add(new LinkedList<Block>());
+        if (this.numSets < 1) {
+            throw new IllegalArgumentException("a " + size + " byte cache cannot hold " + assoc + " blocks of "
+                    + block + " bytes per set");
         }
+        this.decoder = new AddressDecoder(block, this.numSets);
+
+        int numBlocks = this.numSets * this.associativity;
+        this.tags = new long[numBlocks];
+        this.addresses = new long[numBlocks];
+        this.valid = new boolean[numBlocks];
+        this.dirty = new boolean[numBlocks];
+        this.positions = new long[numBlocks];
+        this.stamps = new long[numBlocks];
+        this.clock = 0;
+        this.setFill = new int[this.numSets];
+        this.prefetched = new boolean[numBlocks];
+        this.prefetchTimes = new long[numBlocks];
+        this.evicted = new Block();
+        this.policy = ReplacementPolicy.create(replacement, this);
     }
 
-    Block performOperation(char op, int setNumber, int tag, int address) {
-        if (op == 'w') {
-            return performWrite(setNumber, tag, address);
-        } else {
-            return performRead(setNumber, tag, address);
-        }
+    /**
+     * Performs a read or write of a byte address, decoding the set and tag with this level's
+     * geometry.
+     */
+    Block access(char op, long address) {
+        address = this.decoder.blockAlign(address);
+        return performOperation(op, this.decoder.set(address), this.decoder.tag(address), address);
     }
 
-    Block performWrite(int setNumber, int tag, int address) {
-        int index = getIndexOfTag(setNumber, tag);
-
-        Block removedBlock = new Block();
-        removedBlock.valid = false;
+    /**
+     * Performs a read or write on the given set. The returned block is reused between calls: it is
+     * only valid if the access evicted something, and it is overwritten by the next operation.
+     */
+    Block performOperation(char op, int setNumber, long tag, long address) {
+        return performOperation(op, setNumber, tag, address, this.counter);
+    }
 
-        // write hit
-        if (index != -1) {
-            // update the dirty bit on a write hit
-            Block curBlock = blockArray.get(setNumber).get(index);
-            curBlock.dirty = true;
-            blockArray.get(setNumber).set(index, curBlock);
+    /**
+     * Same as above for a block that was last referenced at the given trace position, which
+     * differs from the current position when a writeback from the level above is installed.
+     */
+    Block performOperation(char op, int setNumber, long tag, long address, long position) {
+        boolean write = (op == 'w');
+        int base = setNumber * this.associativity;
+        int way = getIndexOfTag(setNumber, tag);
 
-            // move MRU to front on access
-            if (this.replacementPolicy == 1 || this.replacementPolicy == 4) {
-                updateLRU(setNumber, tag);
-            }
+        Block removedBlock = this.evicted;
+        removedBlock.valid = false;
+        removedBlock.dirty = true;
 
+        if (write) {
             this.writes++;
+        } else {
+            this.reads++;
+        }
 
+        // hit
+        if (way != -1) {
+            int slot = base + way;
+            if (write) {
+                // update the dirty bit on a write hit
+                this.dirty[slot] = true;
+            }
+            if (position > this.positions[slot]) {
+                this.positions[slot] = position;
+            }
+            this.policy.hit(setNumber, slot, write);
+            if (this.statistics != null) {
+                this.statistics.recordAccess(setNumber, address, true);
+            }
+            this.lastHit = true;
+            this.lastPrefetchHit = this.prefetched[slot];
+            if (this.prefetched[slot]) {
+                usePrefetch(slot);
+            }
             return removedBlock;
-        } else {
+        }
+
+        if (write) {
             this.writeMisses++;
-            this.writes++;
+        } else {
+            this.readMisses++;
+        }
+        if (this.statistics != null) {
+            this.statistics.recordAccess(setNumber, address, false);
+        }
+        this.lastHit = false;
+        this.lastPrefetchHit = false;
+        this.policy.miss(setNumber);
+
+        int slot = allocate(setNumber, removedBlock, false);
+        this.tags[slot] = tag;
+        this.addresses[slot] = address;
+        this.valid[slot] = true;
+        this.dirty[slot] = write;
+        this.positions[slot] = position;
+        this.prefetched[slot] = false;
 
-            Block newBlock = new Block();
-            newBlock.dirty = true;
-            newBlock.tag = tag;
-            newBlock.valid = true;
-            newBlock.address = address;
-            if (tagArray.get(setNumber).size() < this.associativity) {
+        return removedBlock;
+    }
 
-                // insert to both without worrying, no need to evict because there is space left
-                addToLinkedLists(setNumber, tag, newBlock);
+    // the first demand reference to a prefetched block
+    private void usePrefetch(int slot) {
+        this.prefetched[slot] = false;
+        this.usefulPrefetches++;
+        if (this.counter - this.prefetchTimes[slot] < Prefetcher.LATE_WINDOW) {
+            this.latePrefetches++;
+        }
+    }
 
-                return removedBlock;
+    /**
+     * Picks the slot a new block of the set goes into and tells the replacement policy, evicting a
+     * block the policy chooses when the set is full. The evicted block is copied into removedBlock.
+     */
+    private int allocate(int setNumber, Block removedBlock, boolean prefetch) {
+        int base = setNumber * this.associativity;
+        int slot;
+        if (this.setFill[setNumber] < this.associativity) {
+            // cache set is not full, no need to evict because there is space left
+            slot = base + this.setFill[setNumber];
+            this.setFill[setNumber]++;
+            this.policy.fill(setNumber, slot, false, prefetch);
+        } else {
+            slot = base + this.policy.victim(setNumber);
+
+            // make sure its valid so I can use the evicted block later
+            removedBlock.valid = true;
+            removedBlock.tag = this.tags[slot];
+            removedBlock.address = this.addresses[slot];
+            removedBlock.dirty = this.dirty[slot];
+            removedBlock.position = this.positions[slot];
+
+            // deal with dirty bits as necessary
+            if (removedBlock.dirty) {
+                this.writebacks++;
+            }
+            if (this.statistics != null) {
+                this.statistics.recordEviction(setNumber, removedBlock.dirty);
+            }
+            if (this.prefetched[slot]) {
+                this.uselessPrefetches++;
+            } else if (prefetch) {
+                this.pollutionEvictions++;
             }
+            this.policy.fill(setNumber, slot, true, prefetch);
+        }
+        return slot;
+    }
 
-            if (this.replacementPolicy == 3) {
-                Block evictedBlock = doOptimalReplacement(setNumber, newBlock);
-                evictedBlock.valid = true;
-                if (evictedBlock.dirty == true) {
-                    writebacks++;
-                }
-                return evictedBlock;
-            } else if (this.replacementPolicy == 1 || this.replacementPolicy == 2) {
-                // perform LRU/FIFO replacement
-                LinkedList<Integer> curSet1 = tagArray.get(setNumber);
-                LinkedList<Block> curSet2 = blockArray.get(setNumber);
-
-                int removedTag = curSet1.removeLast();
-                removedBlock = curSet2.removeLast();
-
-                // deal with dirty bits as necessary
-                if (removedBlock.dirty == true) {
-                    this.writebacks++;
-                }
-                // add new elements to replacement linked lists
-                curSet1.addFirst(tag);
-                curSet2.addFirst(newBlock);
+    /**
+     * Looks a block up without allocating it on a miss and counts the lookup as a read. Returns the
+     * block's slot, or -1 on a miss.
+     */
+    int lookup(int setNumber, long tag, long address) {
+        this.reads++;
+        int way = getIndexOfTag(setNumber, tag);
+        if (this.statistics != null) {
+            this.statistics.recordAccess(setNumber, address, way != -1);
+        }
+        this.lastHit = way != -1;
+        this.lastPrefetchHit = false;
+        if (way == -1) {
+            this.readMisses++;
+            return -1;
+        }
+        int slot = setNumber * this.associativity + way;
+        if (this.prefetched[slot]) {
+            this.lastPrefetchHit = true;
+            usePrefetch(slot);
+        }
+        return slot;
+    }
 
-                tagArray.set(setNumber, curSet1);
-                blockArray.set(setNumber, curSet2);
+    /**
+     * Looks up a block requested by the prefetcher of the level above without allocating it.
+     * Returns the block's slot, or -1 on a miss.
+     */
+    int prefetchLookup(int setNumber, long tag) {
+        this.prefetchReads++;
+        int way = getIndexOfTag(setNumber, tag);
+        if (way == -1) {
+            this.prefetchReadMisses++;
+            return -1;
+        }
+        return setNumber * this.associativity + way;
+    }
 
-            } else {
-                // perform MRU/LIFO replacement
-                LinkedList<Integer> curSet1 = tagArray.get(setNumber);
-                LinkedList<Block> curSet2 = blockArray.get(setNumber);
+    /**
+     * Fills a block fetched on behalf of the prefetcher of the level above, after prefetchLookup
+     * missed. It is a demand block as far as this level is concerned.
+     */
+    Block fill(int setNumber, long tag, long address, long position) {
+        return install(setNumber, tag, address, false, position, false);
+    }
 
-                int removedTag = curSet1.removeFirst();
-                removedBlock = curSet2.removeFirst();
+    /**
+     * Fills a block proposed by this level's own prefetcher, which must not already be present.
+     */
+    Block prefetch(int setNumber, long tag, long address, long position) {
+        this.prefetchesIssued++;
+        return install(setNumber, tag, address, false, position, true);
+    }
 
-                // deal with dirty bits as necessary
-                if (removedBlock.dirty == true) {
-                    this.writebacks++;
-                }
-                // add new elements to replacement linked lists
-                curSet1.addFirst(tag);
-                curSet2.addFirst(newBlock);
+    /**
+     * Installs a block handed down from the level above, counted as a write but never as a miss
+     * since the block is known to be absent. Evicts by the replacement policy if the set is full,
+     * like performOperation.
+     */
+    Block insert(int setNumber, long tag, long address, boolean dirty, long position) {
+        this.writes++;
+        return install(setNumber, tag, address, dirty, position, false);
+    }
 
-                tagArray.set(setNumber, curSet1);
-                blockArray.set(setNumber, curSet2);
+    private Block install(int setNumber, long tag, long address, boolean dirty, long position, boolean prefetch) {
+        Block removedBlock = this.evicted;
+        removedBlock.valid = false;
+        removedBlock.dirty = true;
+
+        int slot = allocate(setNumber, removedBlock, prefetch);
+        this.tags[slot] = tag;
+        this.addresses[slot] = address;
+        this.valid[slot] = true;
+        this.dirty[slot] = dirty;
+        this.positions[slot] = position;
+        this.prefetched[slot] = prefetch;
+        this.prefetchTimes[slot] = this.counter;
+        return removedBlock;
+    }
 
-            }
+    /**
+     * Overwrites the block in slot with a new block of the same set, as if the old block had been
+     * removed and the new one inserted into the way it freed.
+     */
+    void replace(int slot, long tag, long address, boolean dirty, long position) {
+        this.writes++;
+        this.tags[slot] = tag;
+        this.addresses[slot] = address;
+        this.dirty[slot] = dirty;
+        this.positions[slot] = position;
+        this.prefetched[slot] = false;
+        this.policy.fill(slot / this.associativity, slot, false, false);
+    }
 
-            // make sure its valid so I can use the evicted block later
-            removedBlock.valid = true;
-            return removedBlock;
+    /**
+     * Removes the block in slot. The last filled way of the set moves into the hole, which keeps
+     * the filled ways contiguous, and the replacement policy moves its state along with the block.
+     */
+    void remove(int slot) {
+        int setNumber = slot / this.associativity;
+        int last = setNumber * this.associativity + this.setFill[setNumber] - 1;
+        if (slot != last) {
+            this.tags[slot] = this.tags[last];
+            this.addresses[slot] = this.addresses[last];
+            this.dirty[slot] = this.dirty[last];
+            this.positions[slot] = this.positions[last];
+            this.policy.move(setNumber, last, slot);
+            this.prefetched[slot] = this.prefetched[last];
+            this.prefetchTimes[slot] = this.prefetchTimes[last];
         }
+        this.valid[last] = false;
+        this.prefetched[last] = false;
+        this.setFill[setNumber]--;
     }
 
-    Block performRead(int setNumber, int tag, int address) {
-        int index = getIndexOfTag(setNumber, tag);
-
-        Block removedBlock = new Block();
-        removedBlock.valid = false;
+    /**
+     * Removes a block if this level holds it, for a level below that must not evict blocks the
+     * level above still caches. A dirty block is written straight back to memory.
+     */
+    void invalidate(int setNumber, long tag) {
+        int way = getIndexOfTag(setNumber, tag);
+        if (way == -1) {
+            return;
+        }
+        int slot = setNumber * this.associativity + way;
+        this.invalidations++;
+        if (this.dirty[slot]) {
+            this.invalidationWritebacks++;
+        }
+        if (this.prefetched[slot]) {
+            this.uselessPrefetches++;
+        }
+        remove(slot);
+    }
 
-        // the tag was found in the cache
-        if (index != -1) {
-            if (this.replacementPolicy == 1 || this.replacementPolicy == 3) {
-                updateLRU(setNumber, tag);
+    int getIndexOfTag(int setNumber, long tag) {
+        int base = setNumber * this.associativity;
+        for (int way = 0; way < this.associativity; way++) {
+            if (this.valid[base + way] && this.tags[base + way] == tag) {
+                return way;
             }
+        }
+        return -1;
+    }
 
-            this.reads++;
-            return removedBlock;
-        } else {
-            this.readMisses++;
-            this.reads++;
-
-            // create the new block to insert
-            Block newBlock = new Block();
-            newBlock.tag = tag;
-            newBlock.dirty = false;
-            newBlock.valid = true;
-            newBlock.address = address;
-
-            // cache set is not full
-            if (tagArray.get(setNumber).size() < this.associativity) {
-                // insert to both without worrying, no need to evict because there is space left
-                addToLinkedLists(setNumber, tag, newBlock);
-
-                return removedBlock;
-            }
-
-            // cache set is full
-            // optimal replacement policy placeholder
-            if (this.replacementPolicy == 3) {
-                // perform optimal replacement
-                Block evictedBlock = doOptimalReplacement(setNumber, newBlock);
-                evictedBlock.valid = true;
-                if (evictedBlock.dirty == true) {
-                    writebacks++;
-                }
-                return evictedBlock;
-            } else if (this.replacementPolicy == 1 || this.replacementPolicy == 2) {
-                // perform LRU/FIFO replacement
-                LinkedList<Integer> curSet1 = tagArray.get(setNumber);
-                LinkedList<Block> curSet2 = blockArray.get(setNumber);
-
-                int removedTag = curSet1.removeLast();
-                removedBlock = curSet2.removeLast();
-
-                // deal with dirty bits as necessary
-                if (removedBlock.dirty == true) {
-                    this.writebacks++;
-                }
-                // add new elements to replacement linked lists
-                curSet1.addFirst(tag);
-                curSet2.addFirst(newBlock);
-
-                tagArray.set(setNumber, curSet1);
-                blockArray.set(setNumber, curSet2);
-
-            } else {
-                // perform MRU/LIFO replacement
-                LinkedList<Integer> curSet1 = tagArray.get(setNumber);
-                LinkedList<Block> curSet2 = blockArray.get(setNumber);
+    boolean contains(int setNumber, long tag) {
+        return getIndexOfTag(setNumber, tag) != -1;
+    }
 
-                int removedTag = curSet1.removeFirst();
-                removedBlock = curSet2.removeFirst();
+    void setDirty(int setNumber, long tag) {
+        this.dirty[setNumber * this.associativity + getIndexOfTag(setNumber, tag)] = true;
+    }
 
-                // deal with dirty bits as necessary
-                if (removedBlock.dirty == true) {
-                    this.writebacks++;
-                }
-                // add new elements to replacement linked lists
-                curSet1.addFirst(tag);
-                curSet2.addFirst(newBlock);
+    // clears the dirty bit of a block this level holds, returns whether it was set
+    boolean clean(int setNumber, long tag) {
+        int slot = setNumber * this.associativity + getIndexOfTag(setNumber, tag);
+        boolean wasDirty = this.dirty[slot];
+        this.dirty[slot] = false;
+        return wasDirty;
+    }
 
-                tagArray.set(setNumber, curSet1);
-                blockArray.set(setNumber, curSet2);
+    /**
+     * Fills order with the ways of a set from the most recent to the oldest block, returns how
+     * many blocks the set holds.
+     */
+    int setOrder(int setNumber, int[] order) {
+        int base = setNumber * this.associativity;
+        int fill = this.setFill[setNumber];
+        for (int way = 0; way < fill; way++) {
+            int pos = way;
+            while (pos > 0 && this.stamps[base + order[pos - 1]] < this.stamps[base + way]) {
+                order[pos] = order[pos - 1];
+                pos--;
             }
-
-            removedBlock.valid = true;
-            return removedBlock;
+            order[pos] = way;
         }
+        return fill;
     }
 
-    int getIndexOfTag(int setNumber, int tag) {
-        boolean condition = false;
-        LinkedList<Block> curSet = blockArray.get(setNumber);
-        for (Block currBlock : curSet) {
-            if (currBlock.valid && currBlock.tag == tag) {
-                condition = true;
+    // one line per set, built up before it is printed
+    void printCache(PrintStream out) {
+        int[] order = new int[this.associativity];
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < this.numSets; i++) {
+            int base = i * this.associativity;
+            int fill = setOrder(i, order);
+            line.setLength(0);
+            line.append("Set\t").append(i).append(":\t");
+            for (int j = 0; j < fill; j++) {
+                int slot = base + order[j];
+                line.append(Long.toHexString(this.tags[slot])).append(this.dirty[slot] ? " D\t" : "  \t");
             }
+            out.println(line);
         }
+    }
 
-        if (condition) {
-            return tagArray.get(setNumber).indexOf(tag);
-        } else {
-            return -1;
+    // a JSON array of sets, each an array of blocks from the most recent to the oldest
+    void printContentsJson(PrintStream out) {
+        int[] order = new int[this.associativity];
+        StringBuilder line = new StringBuilder();
+        out.print("[");
+        for (int i = 0; i < this.numSets; i++) {
+            int base = i * this.associativity;
+            int fill = setOrder(i, order);
+            line.setLength(0);
+            line.append(i > 0 ? ",\n  [" : "\n  [");
+            for (int j = 0; j < fill; j++) {
+                int slot = base + order[j];
+                line.append(j > 0 ? ", " : "").append("{\"tag\": \"").append(Long.toHexString(this.tags[slot]))
+                        .append("\", \"dirty\": ").append(this.dirty[slot]).append('}');
+            }
+            out.print(line.append(']'));
         }
+        out.print("]");
     }
 
-    void updateLRU(int setNumber, int tag) {
-        LinkedList<Integer> curSet1 = tagArray.get(setNumber);
-        LinkedList<Block> curSet2 = blockArray.get(setNumber);
-
-        int index = curSet1.indexOf(tag);
-
-        int tagToUpdate = curSet1.remove(index);
-        Block blockToUpdate = curSet2.remove(index);
+    // CSV rows of level, set, rank from the most recent block, tag and dirty bit
+    void printContentsCsv(PrintStream out, String name) {
+        int[] order = new int[this.associativity];
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < this.numSets; i++) {
+            int base = i * this.associativity;
+            int fill = setOrder(i, order);
+            for (int j = 0; j < fill; j++) {
+                int slot = base + order[j];
+                line.setLength(0);
+                line.append(name).append(',').append(i).append(',').append(j).append(',')
+                        .append(Long.toHexString(this.tags[slot])).append(',').append(this.dirty[slot] ? 1 : 0);
+                out.println(line);
+            }
+        }
+    }
+}
 
-        curSet1.addFirst(tagToUpdate);
-        curSet2.addFirst(blockToUpdate);
+class OverallCache {
+    CacheLevel L1;
+    CacheLevel L2;
+    int inclusion;
 
-        tagArray.set(setNumber, curSet1);
-        blockArray.set(setNumber, curSet2);
+    // optional structures between L1 and L2, null when disabled
+    VictimCache victimCache;
+    WriteBackBuffer writeBuffer;
+    // writebacks that reached L2 once the victim cache and write-back buffer absorbed theirs
+    long writesToL2;
+    // optional timing model, null when disabled
+    TimingModel timing;
 
+    public OverallCache(int l1Assoc, int l1Size, int l2Assoc, int l2Size, int block, int replacement, int inclusion,
+            NextUseIndex nextUse) {
+        this.L1 = new CacheLevel(l1Assoc, l1Size, block, replacement, nextUse);
+        this.L2 = new CacheLevel(l2Assoc, l2Size, block, replacement, nextUse);
+        this.inclusion = inclusion;
     }
 
-    void addToLinkedLists(int setNumber, int tag, Block block) {
-        LinkedList<Integer> curSet1 = tagArray.get(setNumber);
-        curSet1.addFirst(tag);
-        tagArray.set(setNumber, curSet1);
+    public OverallCache(int l1Assoc, int l1Size, int block, int replacement, int inclusion,
+            NextUseIndex nextUse) {
+        this.L1 = new CacheLevel(l1Assoc, l1Size, block, replacement, nextUse);
+        this.inclusion = inclusion;
+    }
 
-        LinkedList<Block> curSet2 = blockArray.get(setNumber);
-        curSet2.addFirst(block);
-        blockArray.set(setNumber, curSet2);
+    void simulate(Trace trace) {
+        simulate(trace, 0, trace.size);
+        finish();
     }
 
-    Block doOptimalReplacement(int setNumber, Block newBlock) {
-        // get necessary sublist
-        ArrayList<Integer> currentTrace = new ArrayList<Integer>(
-                this.allTraces.subList(counter, this.allTraces.size()));
-        int maxIndex = -1;
-        int indexToRemove = -1;
-        int i = 0;
-        boolean found = false;
+    /**
+     * Simulates the accesses of the trace from index from up to to, without draining the
+     * write-back buffer, so that a run can stop part way and be saved or continued.
+     */
+    void simulate(Trace trace, int from, int to) {
+        for (int i = from; i < to; i++) {
+            access((char) trace.ops[i], trace.addresses[i]);
+        }
+    }
 
-        // loop over all blocks
-        LinkedList<Integer> setTags = this.tagArray.get(setNumber);
-        LinkedList<Block> setBlocks = this.blockArray.get(setNumber);
-        for (i = 0; i < setBlocks.size(); i++) {
-            // get the next time the memory address is used
-            Block currBlock = setBlocks.get(i);
-            int indexInList = currentTrace.indexOf(currBlock.address / this.blockSize);
-            // if the next time is further than the current furthest, mark as furthest
-            // save the index in the list to remove
-            if (indexInList == -1) {
-                indexToRemove = i;
-                found = true;
-                break;
+    /**
+     * Drains whatever is still waiting in the write-back buffer, so that the L2 counters include
+     * every writeback. Called once the last access has been simulated.
+     */
+    void finish() {
+        if (this.writeBuffer != null) {
+            for (Block drained = this.writeBuffer.drainOldest(); drained.valid; drained = this.writeBuffer
+                    .drainOldest()) {
+                writeToL2(drained.address, drained.position);
             }
-            if (indexInList > maxIndex) {
-                maxIndex = indexInList;
-                indexToRemove = i;
-            }
-
-            // increase the current index being searched
         }
+    }
 
-        // catch statement for when not found in trace
-        if ((indexToRemove == -1) && (!found)) {
-            indexToRemove = this.blockArray.get(setNumber).size() - 1;
+    /**
+     * Simulates one access to a byte address. Each hierarchy keeps all of its state to itself, so
+     * any number of them can be driven from the same or different threads.
+     */
+    void access(char op, long address) {
+        if (this.timing != null) {
+            this.timing.begin(this);
         }
 
-        // remove the old element from the linked list and tag arrays
-        LinkedList<Block> curBlockArray = blockArray.get(setNumber);
-        LinkedList<Integer> curTagArray = tagArray.get(setNumber);
+        // get working address
+        address = this.L1.decoder.blockAlign(address);
+        int index1 = this.L1.decoder.set(address);
+        long tag1 = this.L1.decoder.tag(address);
 
-        Block removedBlock = curBlockArray.remove(indexToRemove);
-        curTagArray.remove(indexToRemove);
+        if (this.L2 != null) {
+            int index2 = this.L2.decoder.set(address);
+            long tag2 = this.L2.decoder.tag(address);
 
-        curBlockArray.add(indexToRemove, newBlock);
-        curTagArray.add(indexToRemove, newBlock.tag);
-
-        this.tagArray.set(setNumber, curTagArray);
-        this.blockArray.set(setNumber, curBlockArray);
+            startOperation(op, index1, tag1, index2, tag2, address);
+            if (this.L1.prefetcher != null || this.L2.prefetcher != null) {
+                runPrefetchers(address);
+            }
+            this.L1.counter++;
+            this.L2.counter++;
+        } else {
+            // l2 does not exist execution
+            this.L1.performOperation(op, index1, tag1, address);
+            if (this.L1.prefetcher != null) {
+                runPrefetchers(address);
+            }
+            this.L1.counter++;
+        }
 
-        return removedBlock;
+        if (this.timing != null) {
+            this.timing.end(this);
+        }
     }
 
-    Boolean contains(int setNumber, int tag) {
-        boolean condition = false;
-        LinkedList<Block> curSet = blockArray.get(setNumber);
-        for (Block currBlock : curSet) {
-            if (currBlock.valid && currBlock.tag == tag) {
-                condition = true;
+    /**
+     * Trains the prefetchers on the demand access just simulated and fills the blocks they
+     * propose. The L2 prefetcher sees the accesses that missed in L1.
+     */
+    private void runPrefetchers(long address) {
+        boolean L1Missed = !this.L1.lastHit;
+        if (this.L2 != null && this.L2.prefetcher != null && L1Missed) {
+            Prefetcher prefetcher = this.L2.prefetcher;
+            int count = prefetcher.observe(address, !this.L2.lastHit || this.L2.lastPrefetchHit);
+            for (int i = 0; i < count; i++) {
+                prefetchIntoL2(prefetcher.candidates[i]);
+            }
+        }
+        if (this.L1.prefetcher != null) {
+            Prefetcher prefetcher = this.L1.prefetcher;
+            int count = prefetcher.observe(address, L1Missed || this.L1.lastPrefetchHit);
+            for (int i = 0; i < count; i++) {
+                prefetchIntoL1(prefetcher.candidates[i]);
             }
         }
-
-        return /* tagArray.get(setNumber).contains(tag) && */ condition;
     }
 
-    void printCache() {
-        for (int i = 0; i < this.numSets; i++) {
-            LinkedList<Block> curSet = blockArray.get(i);
-            System.out.print("Set\t" + i + ":\t");
-            for (Block curBlock : curSet) {
-                System.out.print(Integer.toHexString(curBlock.tag) + " ");
-                if (curBlock.dirty == true) {
-                    System.out.print("D\t");
-                } else {
-                    System.out.print(" \t");
+    private void prefetchIntoL1(long address) {
+        int L1SetNumber = this.L1.decoder.set(address);
+        long L1Tag = this.L1.decoder.tag(address);
+        if (L1.contains(L1SetNumber, L1Tag)
+                || (this.victimCache != null && this.victimCache.find(address) != -1)) {
+            return;
+        }
+        if (this.L2 == null) {
+            // fetched from memory, a dirty victim goes back to memory
+            L1.prefetch(L1SetNumber, L1Tag, address, L1.counter);
+            return;
+        }
+
+        int L2SetNumber = this.L2.decoder.set(address);
+        long L2Tag = this.L2.decoder.tag(address);
+        int L2Slot = L2.prefetchLookup(L2SetNumber, L2Tag);
+        Block evicted = L1.prefetch(L1SetNumber, L1Tag, address, L1.counter);
+
+        if (this.inclusion == 3) {
+            if (L2Slot != -1) {
+                // the block moves up, keeping its dirty bit
+                if (L2.dirty[L2Slot]) {
+                    L1.setDirty(L1SetNumber, L1Tag);
                 }
+                L2.remove(L2Slot);
+            }
+            if (evicted.valid) {
+                L2.insert(this.L2.decoder.set(evicted.address), this.L2.decoder.tag(evicted.address),
+                        evicted.address, evicted.dirty, evicted.position);
             }
-            System.out.println();
+            return;
         }
-    }
-}
-
-class OverallCache {
-    CacheLevel L1;
-    CacheLevel L2;
-    int inclusion;
 
-    public OverallCache(int l1Assoc, int l1Size, int l2Assoc, int l2Size, int block, int replacement, int inclusion,
-            ArrayList<Integer> allTraces) {
-        this.L1 = new CacheLevel(l1Assoc, l1Size, block, replacement, allTraces);
-        this.L2 = new CacheLevel(l2Assoc, l2Size, block, replacement, allTraces);
-        this.inclusion = inclusion;
+        if (evicted.valid && (this.victimCache != null || this.writeBuffer != null)) {
+            demote(evicted.address, evicted.dirty, evicted.position);
+        } else if (evicted.valid && evicted.dirty) {
+            if (this.inclusion == 2) {
+                accessInclusiveL2('w', this.L2.decoder.set(evicted.address), this.L2.decoder.tag(evicted.address),
+                        evicted.address, evicted.position);
+            } else {
+                L2.performOperation('w', this.L2.decoder.set(evicted.address), this.L2.decoder.tag(evicted.address),
+                        evicted.address, evicted.position);
+            }
+        }
+        if (L2Slot == -1) {
+            Block L2Evicted = L2.fill(L2SetNumber, L2Tag, address, L2.counter);
+            if (this.inclusion == 2 && L2Evicted.valid) {
+                L1.invalidate(this.L1.decoder.set(L2Evicted.address), this.L1.decoder.tag(L2Evicted.address));
+                if (this.victimCache != null) {
+                    this.victimCache.invalidate(L2Evicted.address);
+                }
+            }
+        }
     }
 
-    public OverallCache(int l1Assoc, int l1Size, int block, int replacement, int inclusion,
-            ArrayList<Integer> allTraces) {
-        this.L1 = new CacheLevel(l1Assoc, l1Size, block, replacement, allTraces);
-        this.inclusion = inclusion;
+    private void prefetchIntoL2(long address) {
+        int L2SetNumber = this.L2.decoder.set(address);
+        long L2Tag = this.L2.decoder.tag(address);
+        if (L2.contains(L2SetNumber, L2Tag)) {
+            return;
+        }
+        if (this.inclusion == 3 && L1.contains(this.L1.decoder.set(address), this.L1.decoder.tag(address))) {
+            // an exclusive L2 never holds what L1 holds
+            return;
+        }
+        Block evicted = L2.prefetch(L2SetNumber, L2Tag, address, L2.counter);
+        if (this.inclusion == 2 && evicted.valid) {
+            L1.invalidate(this.L1.decoder.set(evicted.address), this.L1.decoder.tag(evicted.address));
+            if (this.victimCache != null) {
+                this.victimCache.invalidate(evicted.address);
+            }
+        }
     }
 
-    void startOperation(char op, int L1SetNumber, int L1Tag, int L2SetNumber, int L2Tag, int address) {
+    void startOperation(char op, int L1SetNumber, long L1Tag, int L2SetNumber, long L2Tag, long address) {
+        if (this.inclusion == 3) {
+            executeExclusive(op, L1SetNumber, L1Tag, L2SetNumber, L2Tag, address);
+            return;
+        }
+
         int state = -1;
         boolean L1Contains = L1.contains(L1SetNumber, L1Tag);
         boolean L2Contains = false;
@@ -417,14 +736,16 @@ class OverallCache {
 
         }
 
-        if (this.inclusion == 1) {
+        if (this.victimCache != null || this.writeBuffer != null) {
+            executeBuffered(op, state, L1SetNumber, L1Tag, L2SetNumber, L2Tag, address);
+        } else if (this.inclusion == 1) {
             executeNoninclusive(op, state, L1SetNumber, L1Tag, L2SetNumber, L2Tag, address);
         } else if (this.inclusion == 2) {
             executeInclusive(op, state, L1SetNumber, L1Tag, L2SetNumber, L2Tag, address);
         }
     }
 
-    void executeNoninclusive(char op, int state, int L1SetNumber, int L1Tag, int L2SetNumber, int L2Tag, int address) {
+    void executeNoninclusive(char op, int state, int L1SetNumber, long L1Tag, int L2SetNumber, long L2Tag, long address) {
 
         if (state == 0) {
             // exists in both, nothing will be evicted, just leave it alone
@@ -434,11 +755,10 @@ class OverallCache {
             Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
 
             if (evicted.valid && evicted.dirty) {
-                int newL2SetNumber = ((int) evicted.address >> (sim_cache.blockOffsetBits))
-                        & ((1 << sim_cache.indexBits2) - 1);
-                int newL2Tag = evicted.address >> sim_cache.tagBits2;
+                int newL2SetNumber = this.L2.decoder.set(evicted.address);
+                long newL2Tag = this.L2.decoder.tag(evicted.address);
 
-                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address);
+                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address, evicted.position);
             }
         } else if (state == 2) {
             // exists only in l2, move it into l1, deal with the eviction it causes
@@ -446,11 +766,10 @@ class OverallCache {
 
             if (evicted.valid && evicted.dirty) {
 
-                int newL2SetNumber = ((int) evicted.address >> (sim_cache.blockOffsetBits))
-                        & ((1 << sim_cache.indexBits2) - 1);
-                int newL2Tag = evicted.address >> sim_cache.tagBits2;
+                int newL2SetNumber = this.L2.decoder.set(evicted.address);
+                long newL2Tag = this.L2.decoder.tag(evicted.address);
 
-                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address);
+                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address, evicted.position);
 
             }
             L2.performOperation(op, L2SetNumber, L2Tag, address);
@@ -461,11 +780,10 @@ class OverallCache {
             Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
 
             if (evicted.valid && evicted.dirty) {
-                int newL2SetNumber = ((int) evicted.address >> (sim_cache.blockOffsetBits))
-                        & ((1 << sim_cache.indexBits2) - 1);
-                int newL2Tag = evicted.address >> sim_cache.tagBits2;
+                int newL2SetNumber = this.L2.decoder.set(evicted.address);
+                long newL2Tag = this.L2.decoder.tag(evicted.address);
 
-                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address);
+                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address, evicted.position);
 
             }
             // todo: handle difference in operation based on evict
@@ -475,74 +793,228 @@ class OverallCache {
         }
     }
 
-    void executeInclusive(char op, int state, int L1SetNumber, int L1Tag, int L2SetNumber, int L2Tag, int address) {
-        if (state == 0) {
-            // exists in both, nothing will be evicted, just leave it alone
+    /**
+     * Inclusive hierarchy: the same fills and writebacks as non-inclusive, except that every
+     * block L2 evicts is also removed from L1, so L1 only ever holds blocks that L2 holds too.
+     */
+    void executeInclusive(char op, int state, int L1SetNumber, long L1Tag, int L2SetNumber, long L2Tag, long address) {
+        if (state == 0 || state == 1) {
+            // hit in l1, which means l2 holds the block as well
             L1.performOperation(op, L1SetNumber, L1Tag, address);
-            // L2.performOperation(op, L2SetNumber, L2Tag, address);
-        } else if (state == 1) {
-            // exists only in l1, deal with eviction but do nothing else
-            // L2.misses++;
-            // Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
-
-            // if (evicted.valid && evicted.dirty) {
-            // // print out the evicted block
-
-            // int newL2SetNumber = ((int) evicted.address >> (CacheSim.blockOffsetBits))
-            // & ((1 << CacheSim.indexBits2) - 1);
-            // int newL2Tag = evicted.address >> CacheSim.tagBits2;
-            // System.out.println("trying to access L2 tag: " +
-            // Integer.toHexString(newL2Tag));
-
-            // this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address);
-            // }
         } else if (state == 2) {
             // exists only in l2, move it into l1, deal with the eviction it causes
             Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
 
             if (evicted.valid && evicted.dirty) {
-
-                int newL2SetNumber = ((int) evicted.address >> (sim_cache.blockOffsetBits))
-                        & ((1 << sim_cache.indexBits2) - 1);
-                int newL2Tag = evicted.address >> sim_cache.tagBits2;
-
-                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address);
-
+                accessInclusiveL2('w', this.L2.decoder.set(evicted.address), this.L2.decoder.tag(evicted.address),
+                        evicted.address, evicted.position);
             }
-            L2.performOperation(op, L2SetNumber, L2Tag, address);
-
-            // L1.reads--; //subtracting one to account for copying from L2, not memory
+            accessInclusiveL2(op, L2SetNumber, L2Tag, address, this.L2.counter);
         } else if (state == 3) {
             // doesnt exist in either, handle the eviction from l1
             Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
 
             if (evicted.valid && evicted.dirty) {
-                int newL2SetNumber = ((int) evicted.address >> (sim_cache.blockOffsetBits))
-                        & ((1 << sim_cache.indexBits2) - 1);
-                int newL2Tag = evicted.address >> sim_cache.tagBits2;
+                accessInclusiveL2('w', this.L2.decoder.set(evicted.address), this.L2.decoder.tag(evicted.address),
+                        evicted.address, evicted.position);
+            }
+            accessInclusiveL2('r', L2SetNumber, L2Tag, address, this.L2.counter);
+        }
+    }
 
-                this.L2.performOperation('w', newL2SetNumber, newL2Tag, evicted.address);
+    // back-invalidates the block an L2 access evicts, if L1 or the victim cache still holds it
+    private void accessInclusiveL2(char op, int L2SetNumber, long L2Tag, long address, long position) {
+        Block evicted = L2.performOperation(op, L2SetNumber, L2Tag, address, position);
+        if (evicted.valid) {
+            L1.invalidate(this.L1.decoder.set(evicted.address), this.L1.decoder.tag(evicted.address));
+            if (this.victimCache != null) {
+                this.victimCache.invalidate(evicted.address);
+            }
+        }
+    }
+
+    /**
+     * Non-inclusive or inclusive hierarchy with a victim cache and/or write-back buffer between L1
+     * and L2. An L1 miss probes the victim cache first, then the write-back buffer, and reads L2
+     * only if neither holds the block. L1 victims go to the victim cache, and dirty blocks leaving
+     * it go through the write-back buffer on their way to L2.
+     */
+    void executeBuffered(char op, int state, int L1SetNumber, long L1Tag, int L2SetNumber, long L2Tag, long address) {
+        if (state == 0 || state == 1) {
+            L1.performOperation(op, L1SetNumber, L1Tag, address);
+            return;
+        }
 
+        int entry = this.victimCache != null ? this.victimCache.probe(address) : -1;
+        Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
+        if (entry != -1) {
+            // swap the requested block with the l1 victim, l2 is not involved
+            if (this.victimCache.dirty[entry]) {
+                L1.setDirty(L1SetNumber, L1Tag);
             }
-            // todo: handle difference in operation based on evict
-            // l2 should be write if its a write eviction, otherwise a read
-            L2.performOperation('r', L2SetNumber, L2Tag, address);
+            if (evicted.valid) {
+                this.victimCache.replace(entry, evicted.address, evicted.dirty, evicted.position);
+            } else {
+                this.victimCache.remove(entry);
+            }
+            skipL2Read(op, state);
+            return;
+        }
+
+        if (evicted.valid) {
+            demote(evicted.address, evicted.dirty, evicted.position);
+        }
+        // an inclusive l1 may only take the block from the buffer while l2 still holds it
+        if (this.writeBuffer != null && (this.inclusion != 2 || state == 2) && this.writeBuffer.forward(address)) {
+            // the newest copy is still waiting to be written back, which l1 now shares
+            skipL2Read(op, state);
+            return;
+        }
+
+        char L2Op = state == 2 ? op : 'r';
+        if (this.inclusion == 2) {
+            accessInclusiveL2(L2Op, L2SetNumber, L2Tag, address, this.L2.counter);
+        } else {
+            L2.performOperation(L2Op, L2SetNumber, L2Tag, address);
+        }
+    }
+
+    // startOperation counts a read for a write that hits in l2, take it back if l2 is never read
+    private void skipL2Read(char op, int state) {
+        if (state == 2 && op == 'w') {
+            this.L2.reads--;
+        }
+    }
+
+    /**
+     * Moves a block L1 evicted into the victim cache, or writes it back if there is none.
+     */
+    private void demote(long address, boolean dirty, long position) {
+        if (this.victimCache == null) {
+            if (dirty) {
+                writeBack(address, position);
+            }
+            return;
+        }
+        Block overflowed = this.victimCache.insert(address, dirty, position);
+        if (overflowed.valid && overflowed.dirty) {
+            writeBack(overflowed.address, overflowed.position);
+        }
+    }
+
+    private void writeBack(long address, long position) {
+        if (this.writeBuffer == null) {
+            writeToL2(address, position);
+            return;
+        }
+        Block drained = this.writeBuffer.add(address, position);
+        if (drained.valid) {
+            writeToL2(drained.address, drained.position);
+        }
+    }
 
+    private void writeToL2(long address, long position) {
+        this.writesToL2++;
+        if (this.inclusion == 2) {
+            accessInclusiveL2('w', this.L2.decoder.set(address), this.L2.decoder.tag(address), address, position);
+        } else {
+            L2.performOperation('w', this.L2.decoder.set(address), this.L2.decoder.tag(address), address, position);
+        }
+    }
+
+    /**
+     * Exclusive hierarchy: a block is held by L1 or L2 but never both, so L2 acts as a victim cache
+     * for L1. An L1 miss that hits in L2 moves the block up, one that misses fills L1 straight from
+     * memory, and every valid L1 victim, clean or dirty, moves down into L2.
+     */
+    void executeExclusive(char op, int L1SetNumber, long L1Tag, int L2SetNumber, long L2Tag, long address) {
+        if (L1.contains(L1SetNumber, L1Tag)) {
+            L1.performOperation(op, L1SetNumber, L1Tag, address);
+            return;
+        }
+
+        int L2Slot = L2.lookup(L2SetNumber, L2Tag, address);
+        Block evicted = L1.performOperation(op, L1SetNumber, L1Tag, address);
+        if (L2Slot != -1 && L2.dirty[L2Slot]) {
+            // l2 gave up the only copy, so its modifications now belong to l1
+            L1.setDirty(L1SetNumber, L1Tag);
+        }
+
+        if (!evicted.valid) {
+            if (L2Slot != -1) {
+                L2.remove(L2Slot);
+            }
+            return;
+        }
+
+        int victimSetNumber = this.L2.decoder.set(evicted.address);
+        long victimTag = this.L2.decoder.tag(evicted.address);
+        if (L2Slot != -1 && victimSetNumber == L2SetNumber) {
+            // swap: the victim takes over the way the requested block left, nothing is evicted
+            L2.replace(L2Slot, victimTag, evicted.address, evicted.dirty, evicted.position);
+        } else {
+            if (L2Slot != -1) {
+                L2.remove(L2Slot);
+            }
+            L2.insert(victimSetNumber, victimTag, evicted.address, evicted.dirty, evicted.position);
+        }
+    }
+
+    /**
+     * Blocks written into L2. Outside of exclusive mode the only way for something to write to L2
+     * is a writeback from L1, unless the victim cache or write-back buffer absorbed it. An
+     * exclusive L2 also takes in clean L1 victims.
+     */
+    long l2Writes() {
+        if (this.inclusion == 3) {
+            return this.L2.writes;
+        } else if (this.victimCache != null || this.writeBuffer != null) {
+            return this.writesToL2;
+        }
+        return this.L1.writebacks;
+    }
+
+    /**
+     * Blocks read from or written to memory.
+     */
+    long memoryTraffic() {
+        return memoryReads() + memoryWrites();
+    }
+
+    // demand misses and blocks fetched by the prefetchers
+    long memoryReads() {
+        if (this.L2 != null) {
+            return this.L2.readMisses + this.L2.prefetchReadMisses + this.L2.prefetchesIssued;
+        } else {
+            return this.L1.readMisses + this.L1.writeMisses + this.L1.prefetchesIssued;
+        }
+    }
+
+    // writebacks, including dirty blocks written back when an inclusive L2 invalidates them
+    long memoryWrites() {
+        if (this.L2 != null) {
+            long writes = this.L2.writebacks + this.L1.invalidationWritebacks;
+            if (this.victimCache != null) {
+                writes += this.victimCache.invalidationWritebacks;
+            }
+            return writes;
+        } else {
+            return this.L1.writebacks;
         }
     }
 }
 
 class sim_cache {
-    public static int blockOffsetBits;
-    public static int indexBits1;
-    public static int indexBits2;
-    public static int tagBits1;
-    public static int tagBits2;
+    // how often a streamed run reports its progress when -progress is not given
+    static final long DEFAULT_PROGRESS_INTERVAL = 10000000;
 
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
         // get the input from the command line in the following order:
         // <BLOCKSIZE> <L1_SIZE> <L1_ASSOC> <L2_SIZE> <L2_ASSOC> <REPLACEMENT_POLICY>
-        // <INCLUSION_PROPERTY> <trace_file>
+        // <INCLUSION_PROPERTY> <trace_file> [-stream] [-progress N] [-stats <json_file>]
+        // [-prefetch-l1 <spec>] [-prefetch-l2 <spec>] [-victim-cache N] [-write-buffer N] [-timing <spec>]
+        // [-checkpoint N <file>] [-restore <file>] [-threads N] [-result-cache <dir>] [-result-cache-size MB]
+        // [-format text|json|csv] [-contents]
         int blockSize = Integer.parseInt(args[0]);
         int l1Size = Integer.parseInt(args[1]);
         int l1Assoc = Integer.parseInt(args[2]);
@@ -552,183 +1024,629 @@ class sim_cache {
         String inclusionProperty = args[6];
         String traceFile = args[7];
 
-        ArrayList<Integer> allTraces = scanInAddresses(traceFile, blockSize);
+        // "-" reads the trace from standard input and "gen:<spec>" generates it, and like a gzip trace
+        // both are always streamed
+        boolean stream = TraceStream.isStream(traceFile);
+        long progressInterval = 0;
+        String statsFile = null;
+        String l1Prefetch = null;
+        String l2Prefetch = null;
+        int victimEntries = 0;
+        int writeBufferEntries = 0;
+        String timingSpec = null;
+        long checkpointAt = -1;
+        String checkpointFile = null;
+        String restoreFile = null;
+        int threads = 1;
+        String resultCache = null;
+        String format = "text";
+        boolean contents = false;
+        long resultCacheMegabytes = ResultStore.DEFAULT_MAX_BYTES >> 20;
+        for (int i = 8; i < args.length; i++) {
+            if (args[i].equals("-stream")) {
+                stream = true;
+            } else if (args[i].equals("-progress")) {
+                progressInterval = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-stats")) {
+                statsFile = args[++i];
+            } else if (args[i].equals("-prefetch-l1")) {
+                l1Prefetch = args[++i];
+            } else if (args[i].equals("-prefetch-l2")) {
+                l2Prefetch = args[++i];
+            } else if (args[i].equals("-victim-cache")) {
+                victimEntries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-write-buffer")) {
+                writeBufferEntries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-timing")) {
+                timingSpec = args[++i];
+            } else if (args[i].equals("-checkpoint")) {
+                checkpointAt = Long.parseLong(args[++i]);
+                checkpointFile = args[++i];
+            } else if (args[i].equals("-restore")) {
+                restoreFile = args[++i];
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-result-cache")) {
+                resultCache = args[++i];
+            } else if (args[i].equals("-result-cache-size")) {
+                resultCacheMegabytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-format")) {
+                format = args[++i];
+            } else if (args[i].equals("-contents")) {
+                contents = true;
+            }
+        }
 
-        // convert the replacement policy to an integer
-        int replacementPolicyInt = -1;
-        if (replacementPolicy.equals("LRU")) {
-            replacementPolicyInt = 1;
-        } else if (replacementPolicy.equals("FIFO")) {
-            replacementPolicyInt = 2;
-        } else if (replacementPolicy.equals("optimal")) {
-            replacementPolicyInt = 3;
-        } else if (replacementPolicy.equals("MRU")) {
-            replacementPolicyInt = 4;
-        } else if (replacementPolicy.equals("LIFO")) {
-            replacementPolicyInt = 5;
+        if (!(format.equals("text") || format.equals("json") || format.equals("csv"))) {
+            throw new IllegalArgumentException("unknown -format " + format + ", expected text, json or csv");
+        }
+        int replacementPolicyInt = parseReplacementPolicy(replacementPolicy);
+        int inclusionPropertyInt = parseInclusionProperty(inclusionProperty);
+        boolean L2Exists = (l2Size > 0 ? true : false);
+        boolean prefetching = l1Prefetch != null || l2Prefetch != null;
+        if (prefetching && replacementPolicyInt == ReplacementPolicy.OPTIMAL) {
+            // optimal replacement only knows the future of blocks the trace references
+            throw new IllegalArgumentException("prefetching cannot be combined with optimal replacement");
+        }
+        if (l2Prefetch != null && !L2Exists) {
+            throw new IllegalArgumentException("-prefetch-l2 needs an L2");
+        }
+        boolean buffered = victimEntries > 0 || writeBufferEntries > 0;
+        if (buffered && (!L2Exists || inclusionPropertyInt == 3)) {
+            // an exclusive L2 already takes in every L1 victim
+            throw new IllegalArgumentException(
+                    "-victim-cache and -write-buffer need a non-inclusive or inclusive L2");
+        }
+        if ((checkpointFile != null || restoreFile != null) && (prefetching || statsFile != null)) {
+            // prefetcher tables and statistics are not part of a checkpoint
+            throw new IllegalArgumentException("-checkpoint and -restore cannot be combined with prefetching or -stats");
+        }
+        boolean sharded = threads > 1;
+        if (sharded && (prefetching || buffered || statsFile != null || timingSpec != null || checkpointFile != null
+                || restoreFile != null)) {
+            // these follow the order of all accesses, not just those of one set
+            throw new IllegalArgumentException("-threads can only simulate the cache levels on their own");
         }
 
-        // convert the inclusion property to an integer
-        int inclusionPropertyInt = -1;
+        // the plain report depends only on the configuration, the trace contents and the simulator,
+        // so it can be looked up instead of simulated
+        ResultStore results = null;
+        String resultKey = null;
+        if (resultCache != null) {
+            if (prefetching || buffered || statsFile != null || timingSpec != null || checkpointFile != null
+                    || restoreFile != null || traceFile.equals("-")) {
+                throw new IllegalArgumentException(
+                        "-result-cache only stores the cache levels' report for a trace file or generated trace");
+            }
+            results = new ResultStore(resultCache, resultCacheMegabytes << 20);
+            // the report names the trace file, so the name is part of the key as well as the contents
+            resultKey = "sim_cache " + ResultStore.simulatorVersion() + "\ntrace " + ResultStore.traceHash(traceFile)
+                    + " " + traceFile + "\n" + blockSize + " " + l1Size + " " + l1Assoc + " " + l2Size + " "
+                    + (L2Exists ? l2Assoc : 0) + " " + ReplacementPolicy.NAMES[replacementPolicyInt] + " "
+                    + inclusionPropertyInt + "\n" + format + (contents ? " contents" : "");
+            String report = results.get(resultKey);
+            System.err.println("result cache: " + (report != null ? "hit" : "miss"));
+            if (report != null) {
+                System.out.print(report);
+                return;
+            }
+        }
+
+        // only the optimal policy looks ahead, everything else can simulate as the trace is read,
+        // and a sharded run splits the whole trace up front
+        if (stream && replacementPolicyInt != ReplacementPolicy.OPTIMAL && !sharded) {
+            OverallCache cache = createCache(blockSize, l1Size, l1Assoc, l2Size, l2Assoc, replacementPolicyInt,
+                    inclusionPropertyInt, null);
+            if (statsFile != null) {
+                enableStatistics(cache);
+            }
+            enableBuffers(cache, victimEntries, writeBufferEntries);
+            if (timingSpec != null) {
+                cache.timing = TimingModel.parse(timingSpec);
+            }
+            // the same hierarchy without prefetchers, to measure what prefetching changes
+            OverallCache baseline = null;
+            if (prefetching) {
+                enablePrefetchers(cache, l1Prefetch, l2Prefetch);
+                baseline = createCache(blockSize, l1Size, l1Assoc, l2Size, l2Assoc, replacementPolicyInt,
+                        inclusionPropertyInt, null);
+                enableBuffers(baseline, victimEntries, writeBufferEntries);
+            }
+            if (progressInterval == 0) {
+                progressInterval = DEFAULT_PROGRESS_INTERVAL;
+            }
+            long start = restoreFile != null ? Checkpoint.restore(restoreFile, cache) : 0;
+            try (TraceStream in = TraceStream.open(traceFile)) {
+                if ((1 << in.blockShift) > blockSize) {
+                    throw new IllegalArgumentException(traceFile + " was reduced to " + (1 << in.blockShift)
+                            + " byte blocks and cannot be simulated with BLOCKSIZE " + blockSize);
+                }
+                long accesses = 0;
+                // the accesses before a restored checkpoint are already in the cache state
+                while (accesses < start && in.next()) {
+                    accesses++;
+                }
+                if (accesses < start) {
+                    throw new IllegalArgumentException(traceFile + " ends before access " + start
+                            + " of " + restoreFile);
+                }
+                while (in.next()) {
+                    if (accesses == checkpointAt) {
+                        Checkpoint.save(cache, accesses, checkpointFile);
+                    }
+                    cache.access(in.op, in.address);
+                    if (baseline != null) {
+                        baseline.access(in.op, in.address);
+                    }
+                    accesses++;
+                    if (accesses % progressInterval == 0) {
+                        printProgress(cache, accesses);
+                    }
+                }
+                if (accesses == checkpointAt) {
+                    Checkpoint.save(cache, accesses, checkpointFile);
+                } else if (checkpointFile != null && (checkpointAt < start || checkpointAt > accesses)) {
+                    throw new IllegalArgumentException("-checkpoint " + checkpointAt + " is outside accesses "
+                            + start + " to " + accesses + " of " + traceFile);
+                }
+            }
+            cache.finish();
+            if (baseline != null) {
+                baseline.finish();
+            }
+            printReport(cache, baseline, L2Exists, traceFile, format, contents, results, resultKey);
+            if (statsFile != null) {
+                writeStatistics(cache, statsFile);
+            }
+            return;
+        }
+
+        Trace trace = Trace.read(traceFile);
+        checkBlockSize(trace, blockSize, traceFile);
+
+        // only the optimal policy needs to know when each block is referenced next
+        NextUseIndex nextUse = null;
+        if (replacementPolicyInt == ReplacementPolicy.OPTIMAL) {
+            nextUse = new NextUseIndex(trace, blockSize);
+        }
+
+        if (sharded) {
+            ShardedSimulation sharding = new ShardedSimulation(blockSize, l1Size, l1Assoc, l2Size, l2Assoc,
+                    replacementPolicyInt, inclusionPropertyInt, nextUse);
+            printReport(sharding.simulate(trace, threads), null, L2Exists, traceFile, format, contents, results,
+                    resultKey);
+            return;
+        }
+
+        OverallCache cache = createCache(blockSize, l1Size, l1Assoc, l2Size, l2Assoc, replacementPolicyInt,
+                inclusionPropertyInt, nextUse);
+        if (statsFile != null) {
+            enableStatistics(cache);
+        }
+        if (prefetching) {
+            enablePrefetchers(cache, l1Prefetch, l2Prefetch);
+        }
+        enableBuffers(cache, victimEntries, writeBufferEntries);
+        if (timingSpec != null) {
+            cache.timing = TimingModel.parse(timingSpec);
+        }
+
+        int start = 0;
+        if (restoreFile != null) {
+            long restored = Checkpoint.restore(restoreFile, cache);
+            if (restored > trace.size) {
+                throw new IllegalArgumentException(traceFile + " ends before access " + restored
+                        + " of " + restoreFile);
+            }
+            start = (int) restored;
+        }
+        if (checkpointFile != null) {
+            if (checkpointAt < start || checkpointAt > trace.size) {
+                throw new IllegalArgumentException("-checkpoint " + checkpointAt + " is outside accesses "
+                        + start + " to " + trace.size + " of " + traceFile);
+            }
+            cache.simulate(trace, start, (int) checkpointAt);
+            Checkpoint.save(cache, checkpointAt, checkpointFile);
+            start = (int) checkpointAt;
+        }
+        cache.simulate(trace, start, trace.size);
+        cache.finish();
+        // the same hierarchy without prefetchers, to measure what prefetching changes
+        OverallCache baseline = null;
+        if (prefetching) {
+            baseline = createCache(blockSize, l1Size, l1Assoc, l2Size, l2Assoc, replacementPolicyInt,
+                    inclusionPropertyInt, nextUse);
+            enableBuffers(baseline, victimEntries, writeBufferEntries);
+            baseline.simulate(trace);
+        }
+        printReport(cache, baseline, L2Exists, traceFile, format, contents, results, resultKey);
+        if (statsFile != null) {
+            writeStatistics(cache, statsFile);
+        }
+    }
+
+    static void enableStatistics(OverallCache cache) {
+        cache.L1.statistics = new LevelStatistics(cache.L1.numSets, cache.L1.associativity, cache.L1.blockSize);
+        if (cache.L2 != null) {
+            cache.L2.statistics = new LevelStatistics(cache.L2.numSets, cache.L2.associativity,
+                    cache.L2.blockSize);
+        }
+    }
+
+    static void writeStatistics(OverallCache cache, String statsFile) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(statsFile)))) {
+            out.print("{\"L1\": " + cache.L1.statistics.toJson());
+            if (cache.L2 != null) {
+                out.print(",\n \"L2\": " + cache.L2.statistics.toJson());
+            }
+            out.println("}");
+        }
+    }
+
+    static void enablePrefetchers(OverallCache cache, String l1Prefetch, String l2Prefetch) {
+        if (l1Prefetch != null) {
+            cache.L1.prefetcher = Prefetcher.parse(l1Prefetch, cache.L1.blockSize);
+        }
+        if (l2Prefetch != null) {
+            cache.L2.prefetcher = Prefetcher.parse(l2Prefetch, cache.L2.blockSize);
+        }
+    }
+
+    static void enableBuffers(OverallCache cache, int victimEntries, int writeBufferEntries) {
+        if (victimEntries > 0) {
+            cache.victimCache = new VictimCache(victimEntries);
+        }
+        if (writeBufferEntries > 0) {
+            cache.writeBuffer = new WriteBackBuffer(writeBufferEntries);
+        }
+    }
+
+    static void printBufferReport(PrintStream out, OverallCache cache) {
+        out.println("===== Victim cache and write-back buffer =====");
+        VictimCache victimCache = cache.victimCache;
+        if (victimCache != null) {
+            out.println("victim cache entries:\t\t" + victimCache.entries);
+            out.println("victim cache probes:\t\t" + victimCache.probes);
+            out.println("victim cache hits:\t\t" + victimCache.hits);
+            out.printf("victim cache hit rate:\t\t%.6f\n", (double) victimCache.hits / victimCache.probes);
+            out.println("victim cache insertions:\t" + victimCache.insertions);
+            out.println("victim cache overflows:\t\t" + victimCache.overflows);
+            out.println("victim cache dirty overflows:\t" + victimCache.dirtyOverflows);
+        }
+        WriteBackBuffer writeBuffer = cache.writeBuffer;
+        if (writeBuffer != null) {
+            out.println("write-back buffer entries:\t" + writeBuffer.entries);
+            out.println("write-back buffer writes:\t" + writeBuffer.writes);
+            out.println("write-back buffer coalesced:\t" + writeBuffer.coalesced);
+            out.println("write-back buffer read hits:\t" + writeBuffer.readHits);
+            out.println("write-back buffer overflows:\t" + writeBuffer.drains);
+        }
+    }
+
+    static void printTimingReport(PrintStream out, TimingModel timing) {
+        out.println("===== Timing =====");
+        out.println("L1/L2/memory latency:\t\t" + timing.l1Latency + "/" + timing.l2Latency + "/"
+                + timing.memoryLatency);
+        out.println("buffer hit latency:\t\t" + timing.bufferLatency);
+        out.println("MSHRs:\t\t\t\t" + timing.mshrs);
+        out.println("transfer/writeback cycles:\t" + timing.transferCycles + "/" + timing.writebackCycles);
+        out.printf("average memory access time:\t%.4f\n", timing.averageAccessTime());
+        out.println("total cycles:\t\t\t" + timing.totalCycles);
+        out.println("MSHR stall cycles:\t\t" + timing.mshrStallCycles);
+        out.println("memory channel stall cycles:\t" + timing.channelStallCycles);
+        out.println("latency histogram:");
+        for (int k = 0; k < timing.latencyHistogram.length; k++) {
+            if (timing.latencyHistogram[k] > 0) {
+                long low = k == 0 ? 0 : 1L << (k - 1);
+                long high = k == 0 ? 1 : 1L << k;
+                out.println("  [" + low + ", " + high + ")\t\t\t" + timing.latencyHistogram[k]);
+            }
+        }
+    }
+
+    // printed after the regular report, which keeps its format
+    static void printPrefetchReport(PrintStream out, OverallCache cache, OverallCache baseline) {
+        out.println("===== Prefetching =====");
+        printPrefetchCounters(out, "L1", cache.L1);
+        if (cache.L2 != null) {
+            printPrefetchCounters(out, "L2", cache.L2);
+        }
+        long traffic = cache.memoryTraffic();
+        long baselineTraffic = baseline.memoryTraffic();
+        out.println("memory traffic without prefetching:\t" + baselineTraffic);
+        out.printf("change in memory traffic:\t%+d (%+.2f%%)\n", traffic - baselineTraffic,
+                100.0 * (traffic - baselineTraffic) / baselineTraffic);
+    }
+
+    private static void printPrefetchCounters(PrintStream out, String name, CacheLevel level) {
+        if (level.prefetcher == null) {
+            out.println(name + " prefetcher:\t\tnone");
+            return;
+        }
+        out.println(name + " prefetcher:\t\t" + level.prefetcher.spec);
+        out.println(name + " prefetches issued:\t" + level.prefetchesIssued);
+        out.println(name + " useful prefetches:\t" + level.usefulPrefetches);
+        out.println(name + " late prefetches:\t" + level.latePrefetches);
+        out.println(name + " useless prefetches:\t" + level.uselessPrefetches);
+        out.println(name + " pollution evictions:\t" + level.pollutionEvictions);
+        out.printf(name + " prefetch accuracy:\t%.6f\n",
+                (double) level.usefulPrefetches / level.prefetchesIssued);
+        // the demand misses left plus the ones prefetching removed
+        out.printf(name + " prefetch coverage:\t%.6f\n", (double) level.usefulPrefetches
+                / (level.usefulPrefetches + level.readMisses + level.writeMisses));
+    }
+
+    // interim results go to stderr so the final report on stdout keeps its format
+    static void printProgress(OverallCache cache, long accesses) {
+        CacheLevel L1 = cache.L1;
+        CacheLevel L2 = cache.L2;
+        double l1MissRate = (double) (L1.readMisses + L1.writeMisses) / (L1.reads + L1.writes);
+        if (L2 != null) {
+            double l2MissRate = (double) (L2.readMisses + L2.writeMisses) / L2.reads;
+            System.err.printf("progress: %d accesses, L1 miss rate %.6f, L2 miss rate %.6f\n", accesses, l1MissRate,
+                    l2MissRate);
+        } else {
+            System.err.printf("progress: %d accesses, L1 miss rate %.6f\n", accesses, l1MissRate);
+        }
+    }
+
+    static OverallCache createCache(int blockSize, int l1Size, int l1Assoc, int l2Size, int l2Assoc,
+            int replacementPolicyInt, int inclusionPropertyInt, NextUseIndex nextUse) {
+        if (l2Size > 0) {
+            return new OverallCache(l1Assoc, l1Size, l2Assoc, l2Size, blockSize, replacementPolicyInt,
+                    inclusionPropertyInt, nextUse);
+        } else {
+            return new OverallCache(l1Assoc, l1Size, blockSize, replacementPolicyInt, inclusionPropertyInt, nextUse);
+        }
+    }
+
+    static void checkBlockSize(Trace trace, int blockSize, String traceFile) {
+        if ((1 << trace.blockShift) > blockSize) {
+            throw new IllegalArgumentException(traceFile + " was reduced to " + (1 << trace.blockShift)
+                    + " byte blocks and cannot be simulated with BLOCKSIZE " + blockSize);
+        }
+    }
+
+    // convert the replacement policy to an integer
+    static int parseReplacementPolicy(String replacementPolicy) {
+        int replacementPolicyInt = ReplacementPolicy.parse(replacementPolicy);
+        if (replacementPolicyInt == -1) {
+            throw new IllegalArgumentException("unknown replacement policy " + replacementPolicy);
+        }
+        return replacementPolicyInt;
+    }
+
+    // convert the inclusion property to an integer
+    static final String[] INCLUSION_NAMES = { null, "non-inclusive", "inclusive", "exclusive" };
+
+    static int parseInclusionProperty(String inclusionProperty) {
+        int inclusionPropertyInt;
         if (inclusionProperty.equals("non-inclusive")) {
             inclusionPropertyInt = 1;
         } else if (inclusionProperty.equals("inclusive")) {
             inclusionPropertyInt = 2;
         } else if (inclusionProperty.equals("exclusive")) {
             inclusionPropertyInt = 3;
-        }
-
-        boolean L2Exists = (l2Size > 0 ? true : false);
-        OverallCache cache;
-        if (L2Exists) {
-            cache = new OverallCache(l1Assoc, l1Size, l2Assoc, l2Size, blockSize, replacementPolicyInt,
-                    inclusionPropertyInt, allTraces);
         } else {
-            cache = new OverallCache(l1Assoc, l1Size, blockSize, replacementPolicyInt, inclusionPropertyInt, allTraces);
+            throw new IllegalArgumentException("unknown inclusion property " + inclusionProperty
+                    + ", expected non-inclusive, inclusive or exclusive");
         }
+        return inclusionPropertyInt;
+    }
 
-        Scanner in = new Scanner(new File(traceFile));
+    /**
+     * Prints the report to standard output through one buffer, and stores it under resultKey if
+     * results is not null.
+     */
+    static void printReport(OverallCache cache, OverallCache baseline, boolean L2Exists, String traceFile,
+            String format, boolean contents, ResultStore results, String resultKey) throws IOException {
+        if (results == null) {
+            // System.out flushes on every print, which made dumping the contents cost more than
+            // simulating them
+            PrintStream out = new PrintStream(
+                    new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+            writeReport(out, cache, baseline, L2Exists, traceFile, format, contents);
+            out.flush();
+            return;
+        }
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(captured, false, "UTF-8")) {
+            writeReport(out, cache, baseline, L2Exists, traceFile, format, contents);
+        }
+        String report = captured.toString("UTF-8");
+        System.out.print(report);
+        results.put(resultKey, report);
+    }
 
+    /**
+     * Writes the report, followed in text by a section for the victim cache and write-back buffer,
+     * the timing model and prefetching when they were used. JSON and CSV carry the counters of
+     * those sections as further fields and columns. baseline is the same hierarchy without
+     * prefetchers, null without prefetching.
+     */
+    static void writeReport(PrintStream out, OverallCache cache, OverallCache baseline, boolean L2Exists,
+            String traceFile, String format, boolean contents) {
+        if (format.equals("text")) {
+            finalPrint(out, cache, L2Exists, traceFile, contents);
+            if (cache.victimCache != null || cache.writeBuffer != null) {
+                printBufferReport(out, cache);
+            }
+            if (cache.timing != null) {
+                printTimingReport(out, cache.timing);
+            }
+            if (baseline != null) {
+                printPrefetchReport(out, cache, baseline);
+            }
+            return;
+        }
+        SimulationResult result = new SimulationResult(cache, traceFile,
+                ReplacementPolicy.NAMES[cache.L1.replacementPolicy], INCLUSION_NAMES[cache.inclusion]);
+        addSectionCounters(result.extra, cache, baseline);
+        if (format.equals("csv")) {
+            out.println(result.header());
+            out.println(result.toCsv());
+            if (contents) {
+                // a second table after a blank line
+                out.println();
+                out.println("level,set,rank,tag,dirty");
+                cache.L1.printContentsCsv(out, "L1");
+                if (L2Exists) {
+                    cache.L2.printContentsCsv(out, "L2");
+                }
+            }
+            return;
+        }
+        String json = result.toJson();
+        if (!contents) {
+            out.println(json);
+            return;
+        }
+        out.print(json.substring(0, json.length() - 1));
+        out.print(",\n \"l1_contents\": ");
+        cache.L1.printContentsJson(out);
         if (L2Exists) {
-            while (in.hasNext()) {
-                String nextLine = in.nextLine();
-                char op = nextLine.charAt(0);
-                long address = Long.parseLong(nextLine.substring(2), 16);
-
-                // calculate bits and values
-                blockOffsetBits = (int) (Math.log(blockSize) / Math.log(2));
-                int offsetBits = (int) address & ((1 << blockOffsetBits) - 1);
-
-                indexBits1 = (int) (Math.log(cache.L1.numSets) / Math.log(2));
-                indexBits2 = (int) (Math.log(cache.L2.numSets) / Math.log(2));
-                tagBits1 = indexBits1 + blockOffsetBits;
-                tagBits2 = indexBits2 + blockOffsetBits;
-                // get working address
-                address = (int) address ^ offsetBits;
-
-                // shift address by offset and & with mask to get index
-                int index1 = ((int) address >> (blockOffsetBits)) & ((1 << indexBits1) - 1);
-                int index2 = ((int) address >> (blockOffsetBits)) & ((1 << indexBits2) - 1);
-                // extract tag bits by shifting
-                int tag1 = ((int) address >> tagBits1);
-                int tag2 = ((int) address >> tagBits2);
-
-                cache.startOperation(op, index1, tag1, index2, tag2, (int) address);
-                cache.L1.counter++;
-                cache.L2.counter++;
+            out.print(",\n \"l2_contents\": ");
+            cache.L2.printContentsJson(out);
+        }
+        out.println("}");
+    }
 
+    // the counters of the sections printed after a text report, named for JSON and CSV
+    static void addSectionCounters(Map<String, Object> extra, OverallCache cache, OverallCache baseline) {
+        VictimCache victimCache = cache.victimCache;
+        if (victimCache != null) {
+            extra.put("victim_cache_entries", victimCache.entries);
+            extra.put("victim_cache_probes", victimCache.probes);
+            extra.put("victim_cache_hits", victimCache.hits);
+            extra.put("victim_cache_hit_rate", (double) victimCache.hits / victimCache.probes);
+            extra.put("victim_cache_insertions", victimCache.insertions);
+            extra.put("victim_cache_overflows", victimCache.overflows);
+            extra.put("victim_cache_dirty_overflows", victimCache.dirtyOverflows);
+        }
+        WriteBackBuffer writeBuffer = cache.writeBuffer;
+        if (writeBuffer != null) {
+            extra.put("write_buffer_entries", writeBuffer.entries);
+            extra.put("write_buffer_writes", writeBuffer.writes);
+            extra.put("write_buffer_coalesced", writeBuffer.coalesced);
+            extra.put("write_buffer_read_hits", writeBuffer.readHits);
+            extra.put("write_buffer_overflows", writeBuffer.drains);
+        }
+        TimingModel timing = cache.timing;
+        if (timing != null) {
+            extra.put("l1_latency", timing.l1Latency);
+            extra.put("l2_latency", timing.l2Latency);
+            extra.put("memory_latency", timing.memoryLatency);
+            extra.put("buffer_latency", timing.bufferLatency);
+            extra.put("mshrs", timing.mshrs);
+            extra.put("transfer_cycles", timing.transferCycles);
+            extra.put("writeback_cycles", timing.writebackCycles);
+            extra.put("average_memory_access_time", timing.averageAccessTime());
+            extra.put("total_cycles", timing.totalCycles);
+            extra.put("mshr_stall_cycles", timing.mshrStallCycles);
+            extra.put("memory_channel_stall_cycles", timing.channelStallCycles);
+            // latency_LOW_HIGH counts the latencies in [LOW, HIGH), up to the longest one
+            int last = timing.latencyHistogram.length - 1;
+            while (last > 0 && timing.latencyHistogram[last] == 0) {
+                last--;
             }
-        } else {
-            // l2 does not exist execution
-            while (in.hasNext()) {
-                String nextLine = in.nextLine();
-                char op = nextLine.charAt(0);
-                long address = Long.parseLong(nextLine.substring(2), 16);
-
-                // calculate bits and values
-                blockOffsetBits = (int) (Math.log(blockSize) / Math.log(2));
-                int offsetBits = (int) address & ((1 << blockOffsetBits) - 1);
-
-                indexBits1 = (int) (Math.log(cache.L1.numSets) / Math.log(2));
-                tagBits1 = indexBits1 + blockOffsetBits;
-                // get working address
-                address = (int) address ^ offsetBits;
-
-                // shift address by offset and & with mask to get index
-                int index1 = ((int) address >> (blockOffsetBits)) & ((1 << indexBits1) - 1);
-                // extract tag bits by shifting
-                int tag1 = ((int) address >> tagBits1);
-                cache.L1.performOperation(op, index1, tag1, (int) address);
-                cache.L1.counter++;
-
+            for (int k = 0; k <= last; k++) {
+                long low = k == 0 ? 0 : 1L << (k - 1);
+                long high = k == 0 ? 1 : 1L << k;
+                extra.put("latency_" + low + "_" + high, timing.latencyHistogram[k]);
+            }
+        }
+        if (baseline != null) {
+            addPrefetchCounters(extra, "l1", cache.L1);
+            if (cache.L2 != null) {
+                addPrefetchCounters(extra, "l2", cache.L2);
             }
+            extra.put("memory_traffic_without_prefetching", baseline.memoryTraffic());
+            long change = cache.memoryTraffic() - baseline.memoryTraffic();
+            extra.put("memory_traffic_change", change);
+            extra.put("memory_traffic_change_percent", 100.0 * change / baseline.memoryTraffic());
+        }
+    }
+
+    private static void addPrefetchCounters(Map<String, Object> extra, String name, CacheLevel level) {
+        extra.put(name + "_prefetcher", level.prefetcher != null ? level.prefetcher.spec : "none");
+        if (level.prefetcher == null) {
+            return;
         }
-        finalPrint(cache.L1, cache.L2, L2Exists, inclusionPropertyInt, traceFile);
+        extra.put(name + "_prefetches_issued", level.prefetchesIssued);
+        extra.put(name + "_useful_prefetches", level.usefulPrefetches);
+        extra.put(name + "_late_prefetches", level.latePrefetches);
+        extra.put(name + "_useless_prefetches", level.uselessPrefetches);
+        extra.put(name + "_pollution_evictions", level.pollutionEvictions);
+        extra.put(name + "_prefetch_accuracy", (double) level.usefulPrefetches / level.prefetchesIssued);
+        extra.put(name + "_prefetch_coverage", (double) level.usefulPrefetches
+                / (level.usefulPrefetches + level.readMisses + level.writeMisses));
     }
 
-    private static void finalPrint(CacheLevel L1, CacheLevel L2, boolean L2Exists, int inclusionPropertyInt,
-            String traceFile) {
-        System.out.println("===== Simulator configuration =====");
-        System.out.println("BLOCKSIZE:\t\t" + L1.blockSize);
-        System.out.println("L1_SIZE:\t\t" + L1.cacheSize);
-        System.out.println("L1_ASSOC:\t\t" + L1.associativity);
+    private static void finalPrint(PrintStream out, OverallCache cache, boolean L2Exists, String traceFile,
+            boolean contents) {
+        CacheLevel L1 = cache.L1;
+        CacheLevel L2 = cache.L2;
+        int inclusionPropertyInt = cache.inclusion;
+        out.println("===== Simulator configuration =====");
+        out.println("BLOCKSIZE:\t\t" + L1.blockSize);
+        out.println("L1_SIZE:\t\t" + L1.cacheSize);
+        out.println("L1_ASSOC:\t\t" + L1.associativity);
         if (L2Exists) {
-            System.out.println("L2_SIZE:\t\t" + L2.cacheSize);
-            System.out.println("L2_ASSOC:\t\t" + L2.associativity);
+            out.println("L2_SIZE:\t\t" + L2.cacheSize);
+            out.println("L2_ASSOC:\t\t" + L2.associativity);
         } else {
-            System.out.println("L2_SIZE:\t\t" + 0);
-            System.out.println("L2_ASSOC:\t\t" + 0);
+            out.println("L2_SIZE:\t\t" + 0);
+            out.println("L2_ASSOC:\t\t" + 0);
         }
 
-        if (L1.replacementPolicy == 1) {
-            System.out.println("REPLACEMENT POLICY:\tLRU");
-        } else if (L1.replacementPolicy == 2) {
-            System.out.println("REPLACEMENT POLICY:\tFIFO");
-        } else if (L1.replacementPolicy == 3) {
-            System.out.println("REPLACEMENT POLICY:\toptimal");
-        }
+        out.println("REPLACEMENT POLICY:\t" + ReplacementPolicy.NAMES[L1.replacementPolicy]);
 
         if (inclusionPropertyInt == 1) {
-            System.out.println("INCLUSION PROPERTY:\tnon-inclusive");
+            out.println("INCLUSION PROPERTY:\tnon-inclusive");
         } else if (inclusionPropertyInt == 2) {
-            System.out.println("INCLUSION PROPERTY:\tinclusive");
+            out.println("INCLUSION PROPERTY:\tinclusive");
+        } else if (inclusionPropertyInt == 3) {
+            out.println("INCLUSION PROPERTY:\texclusive");
         }
-        System.out.println("trace_file:\t\t" + traceFile);
+        out.println("trace_file:\t\t" + traceFile);
 
-        System.out.println("===== L1 contents =====");
-        L1.printCache();
+        if (contents) {
+            out.println("===== L1 contents =====");
+            L1.printCache(out);
 
-        if (L2Exists) {
-            System.out.println("===== L2 contents =====");
-            L2.printCache();
+            if (L2Exists) {
+                out.println("===== L2 contents =====");
+                L2.printCache(out);
+            }
         }
 
-        System.out.println("===== Simulation results (raw) =====");
-        System.out.println("a. number of L1 reads:\t\t" + L1.reads);
-        System.out.println("b. number of L1 read misses:\t" + L1.readMisses);
-        System.out.println("c. number of L1 writes:\t\t" + L1.writes);
-        System.out.println("d. number of L1 write misses:\t" + L1.writeMisses);
-        System.out.printf(
+        out.println("===== Simulation results (raw) =====");
+        out.println("a. number of L1 reads:\t\t" + L1.reads);
+        out.println("b. number of L1 read misses:\t" + L1.readMisses);
+        out.println("c. number of L1 writes:\t\t" + L1.writes);
+        out.println("d. number of L1 write misses:\t" + L1.writeMisses);
+        out.printf(
                 "e. L1 miss rate:\t\t%.6f\n", (double) (L1.readMisses + L1.writeMisses) / (L1.reads + L1.writes));
-        System.out.println("f. number of L1 writebacks:\t" + L1.writebacks);
+        out.println("f. number of L1 writebacks:\t" + L1.writebacks);
 
         if (L2Exists) {
-            System.out.println("g. number of L2 reads:\t\t" + L2.reads);
-            System.out.println("h. number of L2 read misses:\t" + L2.readMisses);
-            // the only way for something to write to L2 is a writeback from a lower cache
-            System.out.println("i. number of L2 writes:\t\t" + L1.writebacks);
-            System.out.println("j. number of L2 write misses:\t" + L2.writeMisses);
-            System.out.printf(
+            out.println("g. number of L2 reads:\t\t" + L2.reads);
+            out.println("h. number of L2 read misses:\t" + L2.readMisses);
+            out.println("i. number of L2 writes:\t\t" + cache.l2Writes());
+            out.println("j. number of L2 write misses:\t" + L2.writeMisses);
+            out.printf(
                     "k. L2 miss rate:\t\t%.6f\n",
                     (double) (L2.readMisses + L2.writeMisses) / (L2.reads));
-            System.out.println("l. number of L2 writebacks:\t" + L2.writebacks);
+            out.println("l. number of L2 writebacks:\t" + L2.writebacks);
         } else {
-            System.out.println("g. number of L2 reads:\t\t" + 0);
-            System.out.println("h. number of L2 read misses:\t" + 0);
-            System.out.println("i. number of L2 writes:\t\t" + 0);
-            System.out.println("j. number of L2 write misses:\t" + 0);
-            System.out.println("k. L2 miss rate:\t\t" + 0);
-            System.out.println("l. number of L2 writebacks:\t" + 0);
+            out.println("g. number of L2 reads:\t\t" + 0);
+            out.println("h. number of L2 read misses:\t" + 0);
+            out.println("i. number of L2 writes:\t\t" + 0);
+            out.println("j. number of L2 write misses:\t" + 0);
+            out.println("k. L2 miss rate:\t\t" + 0);
+            out.println("l. number of L2 writebacks:\t" + 0);
         }
-        if (L2Exists) {
-            System.out.println("m. total memory traffic:\t" + (L2.readMisses + L2.writebacks));
-        } else {
-            System.out.println("m. total memory traffic:\t" + (L1.readMisses + L1.writeMisses + L1.writebacks));
-        }
-    }
-
-    static ArrayList<Integer> scanInAddresses(String traceFile, int blockSize) throws FileNotFoundException {
-        Scanner scanFile = new Scanner(new File(traceFile));
-        ArrayList<Integer> listOfAddresses = new ArrayList<Integer>();
-        while (scanFile.hasNext()) {
-            String nextLine = scanFile.nextLine();
-            nextLine = nextLine.substring(2);
-            long address = Long.parseLong(nextLine, 16);
-            address /= blockSize;
-            listOfAddresses.add((int) address);
-        }
-
-        return listOfAddresses;
+        out.println("m. total memory traffic:\t" + cache.memoryTraffic());
     }
 
 }